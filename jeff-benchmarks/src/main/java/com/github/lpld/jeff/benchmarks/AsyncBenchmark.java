@@ -0,0 +1,83 @@
+package com.github.lpld.jeff.benchmarks;
+
+import com.github.lpld.jeff.IO;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Async boundaries: ping-pong between two executors with {@link IO#fork(java.util.concurrent.Executor)}
+ * and the overhead of {@link IO#race} and {@link IO#both}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AsyncBenchmark {
+
+  @Param("1000")
+  public int size;
+
+  private ExecutorService ping;
+  private ExecutorService pong;
+
+  @Setup
+  public void setUp() {
+    ping = Executors.newSingleThreadExecutor();
+    pong = Executors.newSingleThreadExecutor();
+  }
+
+  @TearDown
+  public void tearDown() {
+    ping.shutdown();
+    pong.shutdown();
+  }
+
+  @Benchmark
+  public int pingPong() {
+    return pingPong(0).run();
+  }
+
+  @Benchmark
+  public int race() {
+    return raceLoop(0).run();
+  }
+
+  @Benchmark
+  public int both() {
+    return bothLoop(0).run();
+  }
+
+  private IO<Integer> pingPong(int i) {
+    return i < size ? IO.pure(i + 1).fork(i % 2 == 0 ? ping : pong).flatMap(this::pingPong)
+                    : IO.pure(i);
+  }
+
+  private IO<Integer> raceLoop(int i) {
+    return i < size ? IO.race(ping, IO.pure(i + 1), IO.never())
+                          .flatMap(r -> raceLoop(r.getLeft()))
+                    : IO.pure(i);
+  }
+
+  private IO<Integer> bothLoop(int i) {
+    return i < size ? IO.both(ping, IO.pure(i + 1), IO.pure(1))
+                          .flatMap(p -> bothLoop(p._1))
+                    : IO.pure(i);
+  }
+}
@@ -0,0 +1,79 @@
+package com.github.lpld.jeff.benchmarks;
+
+import com.github.lpld.jeff.ControlThrowable;
+import com.github.lpld.jeff.IO;
+import com.github.lpld.jeff.data.Or;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Error handling: loops of {@code attempt()} and {@code recover} over failing and succeeding IOs.
+ * {@code legacyAttempt} encodes {@code attempt()} through {@code map} and {@code recoverWith}, as
+ * it was done before the dedicated recovery frames, for comparison.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AttemptBenchmark {
+
+  private static final ControlThrowable ERROR = new ControlThrowable("expected") {
+  };
+
+  @Param("10000")
+  public int size;
+
+  @Param({"true", "false"})
+  public boolean failing;
+
+  @Benchmark
+  public int attempt() {
+    return attemptLoop(0).run();
+  }
+
+  @Benchmark
+  public int legacyAttempt() {
+    return legacyAttemptLoop(0).run();
+  }
+
+  @Benchmark
+  public int recover() {
+    return recoverLoop(0).run();
+  }
+
+  private IO<Integer> action(int i) {
+    return failing ? IO.failFast(ERROR) : IO.pure(i);
+  }
+
+  private IO<Integer> attemptLoop(int i) {
+    return i < size ? action(i).attempt().flatMap(r -> attemptLoop(i + 1)) : IO.pure(i);
+  }
+
+  private IO<Integer> legacyAttemptLoop(int i) {
+    return i < size ? legacyAttempt(action(i)).flatMap(r -> legacyAttemptLoop(i + 1)) : IO.pure(i);
+  }
+
+  private static <T> IO<Or<Throwable, T>> legacyAttempt(IO<T> io) {
+    return io.map(Or::<Throwable, T>Right)
+        .recoverWith(t -> Optional.of(IO.pure(Or.<Throwable, T>Left(t))));
+  }
+
+  private IO<Integer> recoverLoop(int i) {
+    return i < size ? action(i).recover(err -> Optional.of(i)).flatMap(r -> recoverLoop(i + 1))
+                    : IO.pure(i);
+  }
+}
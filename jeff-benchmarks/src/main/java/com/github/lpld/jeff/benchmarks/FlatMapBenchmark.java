@@ -0,0 +1,73 @@
+package com.github.lpld.jeff.benchmarks;
+
+import com.github.lpld.jeff.IO;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Synchronous evaluation: nested {@code flatMap}s and {@code map} chains.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FlatMapBenchmark {
+
+  @Param("10000")
+  public int size;
+
+  /**
+   * {@code io.flatMap(f).flatMap(f)...}: every bind is a new frame on the stack.
+   */
+  @Benchmark
+  public int leftNested() {
+    IO<Integer> io = IO.pure(0);
+    for (int i = 0; i < size; i++) {
+      io = io.flatMap(x -> IO.pure(x + 1));
+    }
+    return io.run();
+  }
+
+  /**
+   * {@code io.flatMap(x -> io.flatMap(...))}: the stack doesn't grow.
+   */
+  @Benchmark
+  public int rightNested() {
+    return loop(0).run();
+  }
+
+  @Benchmark
+  public int delayLoop() {
+    return delayLoop(0).run();
+  }
+
+  @Benchmark
+  public int mapChain() {
+    IO<Integer> io = IO.pure(0);
+    for (int i = 0; i < size; i++) {
+      io = io.map(x -> x + 1);
+    }
+    return io.run();
+  }
+
+  private IO<Integer> loop(int i) {
+    return i < size ? IO.pure(i + 1).flatMap(this::loop) : IO.pure(i);
+  }
+
+  private IO<Integer> delayLoop(int i) {
+    return i < size ? IO.delay(() -> i + 1).flatMap(this::delayLoop) : IO.pure(i);
+  }
+}
@@ -0,0 +1,39 @@
+package com.github.lpld.jeff.benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+
+/**
+ * Entry point of {@code benchmarks.jar}. Accepts the usual JMH command line options, but writes
+ * results to {@code jmh-result.json} in JSON format unless {@code -rf}/{@code -rff} say otherwise,
+ * so that results of different releases can be compared.
+ */
+public class Main {
+
+  public static void main(String[] args)
+      throws CommandLineOptionException, RunnerException, IOException {
+    final CommandLineOptions cmd = new CommandLineOptions(args);
+    if (cmd.shouldHelp() || cmd.shouldList() || cmd.shouldListProfilers()
+        || cmd.shouldListResultFormats() || cmd.shouldListWithParams()) {
+      // let JMH's own main handle informational options
+      org.openjdk.jmh.Main.main(args);
+      return;
+    }
+
+    final ChainedOptionsBuilder options = new OptionsBuilder().parent(cmd);
+    if (!cmd.getResultFormat().hasValue()) {
+      options.resultFormat(ResultFormatType.JSON);
+    }
+    if (!cmd.getResult().hasValue()) {
+      options.result("jmh-result.json");
+    }
+    new Runner(options.build()).run();
+  }
+}
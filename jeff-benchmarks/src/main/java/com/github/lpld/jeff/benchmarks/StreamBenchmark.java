@@ -0,0 +1,72 @@
+package com.github.lpld.jeff.benchmarks;
+
+import com.github.lpld.jeff.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stream evaluation: folding and draining long streams, zipping and merging.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StreamBenchmark {
+
+  @Param("1000000")
+  public int size;
+
+  private ExecutorService executor;
+
+  @Setup
+  public void setUp() {
+    executor = Executors.newFixedThreadPool(2);
+  }
+
+  @TearDown
+  public void tearDown() {
+    executor.shutdown();
+  }
+
+  @Benchmark
+  public long foldLeft() {
+    return Stream.integers().take(size).foldLeft(0L, (acc, i) -> acc + i).run();
+  }
+
+  @Benchmark
+  public Object drain() {
+    return Stream.integers().take(size).map(i -> i + 1).drain().run();
+  }
+
+  @Benchmark
+  public long zip() {
+    return Stream.zip(Stream.integers().take(size), Stream.integers().take(size))
+        .foldLeft(0L, (acc, p) -> acc + p._1 + p._2)
+        .run();
+  }
+
+  @Benchmark
+  public long merge() {
+    return Stream.merge(executor, Stream.integers().take(size / 2),
+                        Stream.integers().take(size / 2))
+        .foldLeft(0L, (acc, i) -> acc + i)
+        .run();
+  }
+}
@@ -14,7 +14,6 @@ import java.util.concurrent.Executor;
 import io.vavr.control.Option;
 import lombok.Getter;
 
-import static com.github.lpld.jeff.IO.IO;
 import static io.vavr.API.Some;
 
 /**
@@ -36,7 +35,7 @@ public class PlayerInput {
 
     final NonBlockingReader reader = term.reader();
 
-    interactions = Stream.eval(IO.forked(executor).chain(IO(() -> reader.read())))
+    interactions = Stream.eval(IO.forked(executor).chain(IO.blocking(() -> reader.read())))
         .repeat()
         .map(input -> {
           switch ((char) input.intValue()) {
@@ -0,0 +1,35 @@
+package com.github.lpld.jeff;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+/**
+ * Elastic pool of daemon threads that is used by {@link IO#blocking}. Threads are created on
+ * demand and are disposed after being idle for a minute.
+ *
+ * There is a separate implementation of this class for JDK 21+ (see {@code src/main/java21}),
+ * which runs each action on a new virtual thread.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+final class BlockingPool {
+
+  private static final ExecutorService POOL = Executors.newCachedThreadPool(new ThreadFactory() {
+    private final AtomicInteger counter = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable r) {
+      final Thread thread = new Thread(r, "jeff-blocking-" + counter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+
+  static void execute(Runnable action) {
+    POOL.execute(action);
+  }
+}
@@ -0,0 +1,147 @@
+package com.github.lpld.jeff;
+
+import com.github.lpld.jeff.LList.LCons;
+import com.github.lpld.jeff.LList.LNil;
+import com.github.lpld.jeff.data.Or;
+import com.github.lpld.jeff.functions.Run1;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * One-shot asynchronous result that can be listened to by any number of callbacks.
+ */
+final class Completion<T> {
+
+  // Either the result (Or<Throwable, T>) or a list of callbacks that are waiting for it
+  // (LList<Run1<Or<Throwable, T>>>).
+  private final AtomicReference<Object> state = new AtomicReference<>(LNil.instance());
+
+  /**
+   * IO that completes with the result of this completion. If it's cancelled while waiting, its
+   * callback is removed, so that cancelled waiters don't pile up until the completion.
+   */
+  IO<T> get() {
+    return get(null);
+  }
+
+  /**
+   * Same as {@link #get()}, but if the IO has to wait, it's resumed on {@code executor} rather
+   * than on the thread that completes this completion ({@code executor} can be {@code null}).
+   */
+  IO<T> get(Executor executor) {
+    return IO.cancellable(callback -> {
+      final Run1<Or<Throwable, T>> listener = listen(callback, executor);
+      return IO.delay(() -> unlisten(listener));
+    });
+  }
+
+  boolean isCompleted() {
+    return state.get() instanceof Or;
+  }
+
+  /**
+   * Same as {@link #listen(Run1)}, but if the result isn't available yet, {@code callback} is
+   * called on {@code executor} (unless it's {@code null}).
+   */
+  Run1<Or<Throwable, T>> listen(Run1<Or<Throwable, T>> callback, Executor executor) {
+    return executor == null || isCompleted()
+           ? listen(callback)
+           : listen(result -> executor.execute(() -> callback.run(result)));
+  }
+
+  /**
+   * Call {@code callback} with the result, right away if it's available. Returns the registered
+   * listener that can be passed to {@link #unlisten}, or {@code null} if the callback has already
+   * been called.
+   */
+  @SuppressWarnings("unchecked")
+  Run1<Or<Throwable, T>> listen(Run1<Or<Throwable, T>> callback) {
+    while (true) {
+      final Object st = state.get();
+
+      if (st instanceof Or) {
+        callback.run((Or<Throwable, T>) st);
+        return null;
+      }
+
+      if (state.compareAndSet(st, ((LList<Run1<Or<Throwable, T>>>) st).prepend(callback))) {
+        return callback;
+      }
+    }
+  }
+
+  /**
+   * Remove a listener that has been registered by {@link #listen}, unless this completion has
+   * already been completed.
+   */
+  @SuppressWarnings("unchecked")
+  void unlisten(Run1<Or<Throwable, T>> listener) {
+    if (listener == null) {
+      return;
+    }
+    while (true) {
+      final Object st = state.get();
+
+      if (st instanceof Or) {
+        return;
+      }
+
+      final LList<Run1<Or<Throwable, T>>> listeners = (LList<Run1<Or<Throwable, T>>>) st;
+      final LList<Run1<Or<Throwable, T>>> remaining = without(listeners, listener);
+      if (remaining == listeners || state.compareAndSet(st, remaining)) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * {@code list} without {@code elem} (compared by reference). The most recent listeners are at
+   * the head, so a waiter that is cancelled soon after it started waiting is found quickly.
+   */
+  private static <T> LList<T> without(LList<T> list, T elem) {
+    final List<T> prefix = new ArrayList<>();
+    LList<T> rest = list;
+
+    while (rest.isNotEmpty()) {
+      final LCons<T> cons = (LCons<T>) rest;
+      if (cons.head == elem) {
+        LList<T> result = cons.tail;
+        for (int i = prefix.size() - 1; i >= 0; i--) {
+          result = result.prepend(prefix.get(i));
+        }
+        return result;
+      }
+      prefix.add(cons.head);
+      rest = cons.tail;
+    }
+    return list;
+  }
+
+  /**
+   * Complete with {@code result} and notify the callbacks. Returns {@code false} if this
+   * completion has already been completed.
+   */
+  @SuppressWarnings("unchecked")
+  boolean complete(Or<Throwable, T> result) {
+    Object st;
+    do {
+      st = state.get();
+
+      if (st instanceof Or) {
+        return false;
+      }
+    } while (!state.compareAndSet(st, result));
+
+    LList<Run1<Or<Throwable, T>>> callbacks = (LList<Run1<Or<Throwable, T>>>) st;
+
+    while (callbacks.isNotEmpty()) {
+      final LCons<Run1<Or<Throwable, T>>> cons = (LCons<Run1<Or<Throwable, T>>>) callbacks;
+      cons.head.run(result);
+      callbacks = cons.tail;
+    }
+    return true;
+  }
+}
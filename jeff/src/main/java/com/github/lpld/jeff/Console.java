@@ -29,6 +29,6 @@ public final class Console {
   }
 
   public static IO<String> readLine() {
-    return IO(() -> console().readLine());
+    return IO.blocking(() -> console().readLine());
   }
 }
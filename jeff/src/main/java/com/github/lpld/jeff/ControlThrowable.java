@@ -0,0 +1,23 @@
+package com.github.lpld.jeff;
+
+/**
+ * Base class for errors that are used for control flow rather than for reporting bugs, e.g.
+ * expected failures that are raised with {@link IO#failFast(Throwable)} and recovered from
+ * shortly after. Such errors don't capture the stack trace (which is the most expensive part of
+ * creating an exception) and don't record suppressed exceptions, so a single instance can be
+ * safely reused.
+ *
+ * The runtime itself fails cancelled IOs with {@link StacklessCancellationException} (a single
+ * shared instance) and timed out IOs with {@link StacklessTimeoutException}, which are stackless
+ * as well, but extend the standard exception types, so that recovery rules for them keep working.
+ */
+public abstract class ControlThrowable extends RuntimeException {
+
+  protected ControlThrowable() {
+    this(null);
+  }
+
+  protected ControlThrowable(String message) {
+    super(message, null, false, false);
+  }
+}
@@ -0,0 +1,79 @@
+package com.github.lpld.jeff;
+
+import com.github.lpld.jeff.data.Or;
+import com.github.lpld.jeff.functions.Fn;
+import com.github.lpld.jeff.functions.Run1;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Implementation of {@link IO#timeoutTo}.
+ *
+ * The guarded IO is started on the current thread and executor (without forking) under its own
+ * cancellable task. A timer is registered only if the IO doesn't complete synchronously. The
+ * winner is decided by a single CAS: if the timer wins, it cancels the IO and switches to the
+ * fallback, and a later result of the IO is ignored; if the IO wins, its result cancels the
+ * timer. If the caller has to wait, it's resumed on its own executor.
+ */
+final class Deadline<T> {
+
+  private static final int RUNNING = 0;
+  private static final int COMPLETED = 1;
+  private static final int TIMED_OUT = 2;
+
+  private final CancellableIO task = CancellableIO.create();
+  private final Completion<IO<T>> result = new Completion<>();
+  private final AtomicInteger state = new AtomicInteger(RUNNING);
+  private volatile TimerWheel.Timeout timer;
+
+  private Deadline() {
+  }
+
+  static <T> IO<T> guard(IO<T> io, long millis, IO<T> fallback) {
+    return new OnExecutor<>(executor -> new Deadline<T>().start(io, millis, fallback, executor));
+  }
+
+  private IO<T> start(IO<T> io, long millis, IO<T> fallback, Executor executor) {
+    IORun.start(io, task, executor, res -> {
+      if (state.compareAndSet(RUNNING, COMPLETED)) {
+        cancelTimer();
+        result.complete(res.transform(Fn.id(), IO::pure));
+      }
+    });
+
+    if (state.get() == RUNNING) {
+      timer = IORuntime.global().timer().schedule(() -> {
+        if (state.compareAndSet(RUNNING, TIMED_OUT)) {
+          // the IO is cancelled before the fallback is started: an IO that waits at an async
+          // boundary won't be resumed after the timeout. A synchronous segment that is already
+          // running can't be interrupted though, so its effects may still happen.
+          task.cancel();
+          result.complete(Or.Right(fallback));
+        }
+      }, TimeUnit.MILLISECONDS.toNanos(millis));
+
+      // the IO might have completed before the timer was published
+      if (state.get() != RUNNING) {
+        cancelTimer();
+      }
+    }
+
+    return IO.<IO<T>>cancellable(callback -> {
+      final Run1<Or<Throwable, IO<T>>> listener = result.listen(callback, executor);
+      return IO.delay(() -> {
+        result.unlisten(listener);
+        cancelTimer();
+        task.cancel();
+      });
+    }).flatMap(Fn.id());
+  }
+
+  private void cancelTimer() {
+    final TimerWheel.Timeout t = timer;
+    if (t != null) {
+      t.cancel();
+    }
+  }
+}
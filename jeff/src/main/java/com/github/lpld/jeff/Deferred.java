@@ -0,0 +1,42 @@
+package com.github.lpld.jeff;
+
+import com.github.lpld.jeff.data.Or;
+
+/**
+ * Value that is set once and can be awaited by any number of IOs. Waiting doesn't block threads:
+ * {@link #get} suspends until {@link #complete} or {@link #fail} is called.
+ */
+public final class Deferred<T> {
+
+  private final Completion<T> completion = new Completion<>();
+
+  private Deferred() {
+  }
+
+  public static <T> Deferred<T> create() {
+    return new Deferred<>();
+  }
+
+  /**
+   * IO that completes with the value of this deferred (or fails with its error).
+   */
+  public IO<T> get() {
+    return completion.get();
+  }
+
+  /**
+   * Complete with {@code value}. The resulting IO returns {@code false} if the deferred has already
+   * been completed.
+   */
+  public IO<Boolean> complete(T value) {
+    return IO.delay(() -> completion.complete(Or.Right(value)));
+  }
+
+  /**
+   * Complete with an error. The resulting IO returns {@code false} if the deferred has already been
+   * completed.
+   */
+  public IO<Boolean> fail(Throwable err) {
+    return IO.delay(() -> completion.complete(Or.Left(err)));
+  }
+}
@@ -0,0 +1,37 @@
+package com.github.lpld.jeff;
+
+import com.github.lpld.jeff.data.Unit;
+
+/**
+ * Handle of an IO that has been started concurrently using {@link IO#start}.
+ */
+public final class Fiber<T> {
+
+  private final CancellableIO task = CancellableIO.create();
+  private final Completion<T> result = new Completion<>();
+
+  private Fiber() {
+  }
+
+  static <T> Fiber<T> start(IO<T> io) {
+    final Fiber<T> fiber = new Fiber<>();
+    IORun.start(io, fiber.task, fiber.result::complete);
+    return fiber;
+  }
+
+  /**
+   * IO that completes when the fiber completes, with the same result. If the fiber has been
+   * cancelled, the IO fails with {@link java.util.concurrent.CancellationException}.
+   */
+  public IO<T> join() {
+    return result.get();
+  }
+
+  /**
+   * Request cancellation of the fiber. Cancellation takes effect at the next async boundary of
+   * the fiber, see {@link IO#race} for details.
+   */
+  public IO<Unit> cancel() {
+    return IO.delay(task::cancel);
+  }
+}
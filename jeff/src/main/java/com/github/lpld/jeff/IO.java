@@ -6,17 +6,18 @@ import com.github.lpld.jeff.data.Unit;
 import com.github.lpld.jeff.functions.Fn;
 import com.github.lpld.jeff.functions.Fn0;
 import com.github.lpld.jeff.functions.Run1;
-import com.github.lpld.jeff.functions.Run3;
+import com.github.lpld.jeff.functions.Run2;
 import com.github.lpld.jeff.functions.XRun;
 import com.github.lpld.jeff.functions.Xn0;
 
+import java.time.Duration;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 import java.util.function.Function;
@@ -65,6 +66,21 @@ public abstract class IO<T> {
     return delay(action);
   }
 
+  /**
+   * Describes a synchronous action that blocks the current thread (e.g. blocking I/O). The action
+   * is evaluated on a dedicated elastic pool of blocking threads (on JDK 21+ on a virtual
+   * thread), after which the evaluation is shifted back to the executor the IO was running on (or
+   * to the compute pool of {@link IORuntime#global()} if there was none). This prevents blocking actions from starving fixed-size pools passed to
+   * {@link IO#fork(Executor)}.
+   */
+  public static <T> IO<T> blocking(Xn0<T> action) {
+    return new Blocking<>(action);
+  }
+
+  public static IO<Unit> blocking(XRun action) {
+    return blocking(action.toXn0());
+  }
+
   /**
    * Lift a pure value to IO type.
    */
@@ -88,11 +104,27 @@ public abstract class IO<T> {
     return new Fail<>(t);
   }
 
+  /**
+   * Create an IO that fails with the preallocated error {@code t}: the same instance is raised
+   * every time the IO is run. Intended for expected failures that are used for control flow, in
+   * which case {@code t} should be stackless (see {@link ControlThrowable}).
+   */
+  public static <T> IO<T> failFast(Throwable t) {
+    return new Fail<>(() -> t);
+  }
+
   /**
    * Shift the execution of IO to another thread/thread-pool.
    */
   public static IO<Unit> forked(Executor executor) {
-    return async(onFinish -> executor.execute(() -> onFinish.run(Right(Unit.unit))));
+    return new Fork(executor);
+  }
+
+  /**
+   * Shift the execution of IO to the compute scheduler of the global {@link IORuntime}.
+   */
+  public static IO<Unit> forked() {
+    return forked(IORuntime.global().compute());
   }
 
   public IO<T> fork(Executor executor) {
@@ -100,10 +132,26 @@ public abstract class IO<T> {
   }
 
   /**
-   * Creates an async boundary.
+   * Shift the execution of the following IOs in the chain to the compute scheduler of the global
+   * {@link IORuntime}.
    */
   public IO<T> fork() {
-    return this.then(IO.async(onFinish -> onFinish.run(Right(Unit.unit))));
+    return this.then(IO.forked());
+  }
+
+  /**
+   * Start this IO concurrently on {@code executor}. The resulting IO completes immediately with a
+   * {@link Fiber} that can be used to wait for the result or to cancel the computation.
+   */
+  public IO<Fiber<T>> start(Executor executor) {
+    return IO.delay(() -> Fiber.start(IO.forked(executor).chain(this)));
+  }
+
+  /**
+   * Start this IO concurrently on the compute scheduler of the global {@link IORuntime}.
+   */
+  public IO<Fiber<T>> start() {
+    return start(IORuntime.global().compute());
   }
 
   /**
@@ -143,21 +191,21 @@ public abstract class IO<T> {
 
     return IO.cancellable(callback -> {
       final AtomicBoolean done = new AtomicBoolean();
-      final Run3<Or<L, R>, Throwable, CancellableIO> onComplete = (res, err, other) -> {
+      final Run2<Or<Throwable, Or<L, R>>, CancellableIO> onComplete = (res, other) -> {
         if (done.compareAndSet(false, true)) {
           other.cancel();
-          callback.run(Or.of(err, res));
+          callback.run(res);
         }
       };
 
       final CancellableIO task1 = CancellableIO.create();
       final CancellableIO task2 = CancellableIO.create();
 
-      IORun.runAsync(IO.forked(executor).chain(io1), task1)
-          .whenComplete((res, err) -> onComplete.run(Left(res), err, task2));
+      IORun.start(IO.forked(executor).chain(io1), task1,
+                  res -> onComplete.run(res.transform(id(), Or::Left), task2));
 
-      IORun.runAsync(IO.forked(executor).chain(io2), task2)
-          .whenComplete((res, err) -> onComplete.run(Right(res), err, task1));
+      IORun.start(IO.forked(executor).chain(io2), task2,
+                  res -> onComplete.run(res.transform(id(), Or::Right), task1));
 
       return IO.delay(() -> {
         task1.cancel();
@@ -183,10 +231,13 @@ public abstract class IO<T> {
           (Or<Throwable, Or<T, U>> res) -> {
 
             if (fstDone.getAndSet(true)) {
-              res.forEach(
+              // the promise is completed on the executor: its waiters are resumed synchronously,
+              // and in a chain of seqs (e.g. Stream.merge) doing it here would nest them on the
+              // stack of this thread until it overflows
+              executor.execute(() -> res.forEach(
                   sndPromise::completeExceptionally,
                   success -> sndPromise.complete(success.fold(l -> l, r -> r))
-              );
+              ));
             } else {
               callback.run(res.transform(
                   id(),
@@ -198,12 +249,10 @@ public abstract class IO<T> {
             }
           };
 
-      IO.forked(executor).chain(io1).runAsync()
-          .handle((res, err) -> Or.of(err, Or.<T, U>Left(res)))
-          .thenAccept(onComplete);
-      IO.forked(executor).chain(io2).runAsync()
-          .handle((res, err) -> Or.of(err, Or.<T, U>Right(res)))
-          .thenAccept(onComplete);
+      IORun.start(IO.forked(executor).chain(io1), UncancellableIOTask.INSTANCE,
+                  res -> onComplete.accept(res.transform(id(), Or::Left)));
+      IORun.start(IO.forked(executor).chain(io2), UncancellableIOTask.INSTANCE,
+                  res -> onComplete.accept(res.transform(id(), Or::Right)));
     });
   }
 
@@ -240,6 +289,25 @@ public abstract class IO<T> {
     });
   }
 
+  /**
+   * Sleep for {@code millis} amount of milliseconds. The timer of the global {@link IORuntime} is
+   * used, and the execution continues on its compute scheduler.
+   */
+  public static IO<Unit> sleep(long millis) {
+    return sleepNanos(TimeUnit.MILLISECONDS.toNanos(millis));
+  }
+
+  static IO<Unit> sleepNanos(long nanos) {
+    return IO.cancellable(onFinish -> {
+      final TimerWheel.Timeout timeout = IORuntime
+          .global()
+          .timer()
+          .schedule(() -> onFinish.run(Right(Unit.unit)), nanos);
+
+      return IO.delay(timeout::cancel);
+    });
+  }
+
   public static <T> IO<T> fromFuture(CompletableFuture<T> future) {
     return async(onFinish -> future.whenComplete((res, err) -> onFinish.run(Or.of(err, res))));
   }
@@ -248,7 +316,7 @@ public abstract class IO<T> {
    * Apply transformation {@code f} to this IO.
    */
   public <U> IO<U> map(Fn<T, U> f) {
-    return flatMap(f.andThen(IO::pure));
+    return new Map<>(this, f, 0);
   }
 
   /**
@@ -269,14 +337,14 @@ public abstract class IO<T> {
    * {@code flatMap} that ignores result of this IO.
    */
   public <U> IO<U> chain(IO<U> io) {
-    return flatMap(t -> io);
+    return flatMap(new Const<>(io));
   }
 
   /**
    * After computing this IO, execute an action {@code io} and ignore it's result.
    */
   public IO<T> then(IO<?> io) {
-    return flatMap(t -> io.map(any -> t));
+    return flatMap(new Then<>(io));
   }
 
   public IO<T> then(Fn<T, IO<?>> f) {
@@ -284,17 +352,128 @@ public abstract class IO<T> {
   }
 
   public IO<Or<Throwable, T>> attempt() {
-    return map(Or::<Throwable, T>Right).recover(t -> Optional.of(Left(t)));
+    return new Attempt<>(this);
   }
 
   public IO<T> recover(Function<Throwable, Optional<T>> r) {
-    return recoverWith(r.andThen(opt -> opt.map(IO::pure)));
+    return new RecoverValue<>(this, r);
   }
 
   public IO<T> recoverWith(Function<Throwable, Optional<IO<T>>> r) {
     return new Recover<>(this, r);
   }
 
+  /**
+   * Create an IO that evaluates this IO only once and then completes with the same result every
+   * time it is run. Callers that arrive while the first evaluation is in flight share it.
+   * Failures are not cached: the next caller will evaluate this IO again.
+   */
+  public IO<T> memoize() {
+    return new Memoized<>(this, Memoized.NEVER_EXPIRES, false).get();
+  }
+
+  /**
+   * Same as {@link IO#memoize()}, but the result is kept only for {@code ttl}, after which this
+   * IO is evaluated again. A {@code ttl} too long to be expressed in nanoseconds (about 292 years,
+   * e.g. {@code ChronoUnit.FOREVER.getDuration()}) means that the result never expires.
+   */
+  public IO<T> cached(Duration ttl) {
+    return cached(ttl, false);
+  }
+
+  /**
+   * Same as {@link IO#cached(Duration)}, but failures are cached as well if
+   * {@code cacheFailures} is {@code true}.
+   */
+  public IO<T> cached(Duration ttl, boolean cacheFailures) {
+    if (ttl.isNegative()) {
+      throw new IllegalArgumentException("ttl must not be negative: " + ttl);
+    }
+    return new Memoized<>(this, Memoized.ttlNanos(ttl), cacheFailures).get();
+  }
+
+  /**
+   * Re-run this IO after failures according to {@code schedule}. If the schedule is over, the last
+   * error is propagated. For example, {@code Schedule.exponential(Duration.ofMillis(100)).and(
+   * Schedule.recurs(5))} means at most 5 retries with exponentially growing delays.
+   *
+   * The retries are evaluated in a loop that takes constant memory regardless of the number of
+   * attempts.
+   */
+  public IO<T> retry(Schedule schedule) {
+    final IO<T> body = optimize();
+    return IO.suspend(() -> body.retry(schedule, 1, System.nanoTime()));
+  }
+
+  private IO<T> retry(Schedule schedule, int attempt, long start) {
+    return attempt().flatMap(result -> {
+      if (result.isRight()) {
+        return IO.pure(result.getRight());
+      }
+      final long delay = schedule.delay(attempt, System.nanoTime() - start);
+      if (delay < 0) {
+        return IO.fail(result::getLeft);
+      }
+      return Schedule.pause(delay).chain(IO.suspend(() -> retry(schedule, attempt + 1, start)));
+    });
+  }
+
+  /**
+   * Re-run this IO after successful completions according to {@code schedule} and return the result
+   * of the last run. A failure stops the repetition. For example, {@code IO.repeat(Schedule
+   * .fixedRate(Duration.ofSeconds(1)))} runs this IO every second forever.
+   *
+   * Like {@link IO#retry}, the repetition takes constant memory.
+   */
+  public IO<T> repeat(Schedule schedule) {
+    final IO<T> body = optimize();
+    return IO.suspend(() -> body.repeat(schedule, 1, System.nanoTime()));
+  }
+
+  private IO<T> repeat(Schedule schedule, int attempt, long start) {
+    return flatMap(result -> {
+      final long delay = schedule.delay(attempt, System.nanoTime() - start);
+      if (delay < 0) {
+        return IO.pure(result);
+      }
+      return Schedule.pause(delay).chain(IO.suspend(() -> repeat(schedule, attempt + 1, start)));
+    });
+  }
+
+  /**
+   * Fail with {@link TimeoutException} (a {@link StacklessTimeoutException}) if this IO doesn't
+   * complete within {@code millis} milliseconds. See {@link IO#timeoutTo(long, IO)}.
+   */
+  public IO<T> timeout(long millis) {
+    return timeoutTo(millis, IO.fail(
+        () -> new StacklessTimeoutException("Timed out after " + millis + " ms")));
+  }
+
+  /**
+   * Switch to {@code fallback} if this IO doesn't complete within {@code millis} milliseconds.
+   * This IO is evaluated on the current thread and is cancelled when the time is up (the
+   * cancellation takes effect at its next async boundary, like in {@link IO#race}). The deadline is
+   * tracked by the timer of the global {@link IORuntime}, and the fallback is evaluated on its
+   * compute scheduler.
+   */
+  public IO<T> timeoutTo(long millis, IO<T> fallback) {
+    return Deadline.guard(this, millis, fallback);
+  }
+
+  /**
+   * Rewrite this IO into an equivalent one that takes fewer interpreter steps: e.g.
+   * {@code pure(x).flatMap(f)} becomes a single suspended call of {@code f}, {@code delay(a).map(f)}
+   * becomes a single {@code delay} and {@code chain(IO.unit)} becomes a {@code map} that is fused
+   * with the neighbouring ones. Nothing is evaluated by the rewrite itself.
+   *
+   * The rewrite walks the whole IO, so it pays off for IOs that are run many times. It is applied
+   * automatically by {@link #retry(Schedule)}, {@link #repeat(Schedule)} and
+   * {@link Stream#repeat()}.
+   */
+  public IO<T> optimize() {
+    return Optimizer.optimize(this);
+  }
+
   /**
    * Trigger asynchronous execution of this IO.
    */
@@ -303,17 +482,24 @@ public abstract class IO<T> {
   }
 
   /**
-   * Synchronously run this IO. This method will block if this IO has asynchronous or blocking
-   * parts.
+   * Synchronously run this IO. The IO is evaluated on the calling thread, which blocks only if
+   * the IO has asynchronous or blocking parts. Errors are rethrown as is (checked exceptions are
+   * wrapped into {@link WrappedError}).
    */
   public T run() {
-    try {
-      return runAsync().get();
-    } catch (InterruptedException err) {
-      return WrappedError.throwWrapped(err);
-    } catch (ExecutionException err) {
-      return WrappedError.throwWrapped(err.getCause());
-    }
+    return IORun.runSync(this, null);
+  }
+
+  /**
+   * Synchronously run this IO, like {@link #run()}, collecting statistics of the interpreter
+   * along the way: how many steps of each kind have been evaluated, how many times the run has
+   * been suspended at async boundaries and for how long. Statistics are not collected by other
+   * ways of running an IO, so they cost nothing there.
+   */
+  public Pr<T, IOStats> runWithStats() {
+    final IOStats stats = new IOStats();
+    final T result = IORun.runSync(this, stats);
+    return Pr(result, stats);
   }
 }
 
@@ -328,6 +514,62 @@ class Delay<T> extends IO<T> {
   }
 }
 
+@RequiredArgsConstructor
+class Blocking<T> extends IO<T> {
+
+  final Xn0<T> thunk;
+
+  /**
+   * Async action that evaluates the thunk on the blocking pool and then resumes on
+   * {@code caller}. If the IO is not running on any executor, it resumes on the global compute
+   * pool, so that the code after the blocking call doesn't occupy a blocking thread.
+   */
+  IO<T> shift(Executor caller) {
+    final Executor target = caller == null ? IORuntime.global().compute() : caller;
+
+    return new Async<T>(onFinish -> {
+      BlockingPool.execute(() -> {
+        Or<Throwable, T> result;
+        try {
+          result = Right(thunk.ap());
+        } catch (Throwable err) {
+          result = Left(err);
+        }
+
+        final Or<Throwable, T> finalResult = result;
+        target.execute(() -> onFinish.run(finalResult));
+      });
+      return IO.unit;
+    }) {
+      @Override
+      Executor resumeOn(Executor current) {
+        return target;
+      }
+    };
+  }
+
+  @Override
+  public String toString() {
+    return "blocking(.)";
+  }
+}
+
+/**
+ * IO that is built from the executor the evaluation is running on ({@code null} if it isn't
+ * running on any). Used by IOs that start nested runs, so that the nested run and its waiters
+ * stay on the caller's executor.
+ */
+@RequiredArgsConstructor
+class OnExecutor<T> extends IO<T> {
+
+  final Fn<Executor, IO<T>> f;
+
+  @Override
+  public String toString() {
+    return "onExecutor(.)";
+  }
+}
+
 @RequiredArgsConstructor
 class Suspend<T> extends IO<T> {
 
@@ -360,17 +602,91 @@ class Fail<T> extends IO<T> {
   }
 }
 
-@RequiredArgsConstructor
-class Recover<T> extends IO<T> {
-  final IO<T> io;
+/**
+ * Node that puts a recovery frame on the call stack while {@code io} is evaluated.
+ */
+abstract class Handler<T> extends IO<T> {
+  final IO<?> io;
+
+  Handler(IO<?> io) {
+    this.io = io;
+  }
+}
+
+class Recover<T> extends Handler<T> {
   final Function<Throwable, Optional<IO<T>>> recover;
 
+  Recover(IO<T> io, Function<Throwable, Optional<IO<T>>> recover) {
+    super(io);
+    this.recover = recover;
+  }
+
   @Override
   public String toString() {
     return "Recover(" + io + ")";
   }
 }
 
+/**
+ * {@link Recover} whose handler returns a value, so the run loop can resume with it directly.
+ */
+class RecoverValue<T> extends Handler<T> {
+  final Function<Throwable, Optional<T>> recover;
+
+  RecoverValue(IO<T> io, Function<Throwable, Optional<T>> recover) {
+    super(io);
+    this.recover = recover;
+  }
+
+  @Override
+  public String toString() {
+    return "Recover(" + io + ")";
+  }
+}
+
+/**
+ * The frame of this node is both a continuation (that wraps a value into {@code Right}) and a
+ * recovery frame (that turns an error into {@code Left}).
+ */
+class Attempt<T> extends Handler<Or<Throwable, T>> {
+
+  Attempt(IO<T> io) {
+    super(io);
+  }
+
+  @Override
+  public String toString() {
+    return "Attempt(" + io + ")";
+  }
+}
+
+/**
+ * Function of {@link IO#chain}. It is a separate class, so that {@link Optimizer} can see the IO.
+ */
+@RequiredArgsConstructor
+class Const<T, U> implements Fn<T, IO<U>> {
+  final IO<U> io;
+
+  @Override
+  public IO<U> ap(T t) {
+    return io;
+  }
+}
+
+/**
+ * Function of {@link IO#then(IO)}. It is a separate class, so that {@link Optimizer} can see the
+ * IO.
+ */
+@RequiredArgsConstructor
+class Then<T> implements Fn<T, IO<T>> {
+  final IO<?> io;
+
+  @Override
+  public IO<T> ap(T t) {
+    return io.map(any -> t);
+  }
+}
+
 @RequiredArgsConstructor
 class Bind<T, U> extends IO<U> {
   final IO<T> source;
@@ -382,14 +698,75 @@ class Bind<T, U> extends IO<U> {
   }
 }
 
+@RequiredArgsConstructor
+class Map<T, U> extends IO<U> {
+
+  /**
+   * Maximum number of functions that can be fused into a single {@code Map} node. Fused
+   * functions are applied as nested calls, so this limit keeps the evaluation stack-safe.
+   */
+  static final int MAX_FUSION_DEPTH = 127;
+
+  final IO<T> source;
+  final Fn<T, U> f;
+  final int depth;
+
+  @Override
+  public <V> IO<V> map(Fn<U, V> g) {
+    return depth < MAX_FUSION_DEPTH
+           ? new Map<>(source, f.andThen(g), depth + 1)
+           : new Map<>(this, g, 0);
+  }
+
+  @Override
+  public String toString() {
+    return "Map(" + source + ", .)";
+  }
+}
+
 @RequiredArgsConstructor
 class Async<T> extends IO<T> {
 
   // (Or<Throwable, T> => Unit) => Unit
   final Fn<Run1<Or<Throwable, T>>, IO<Unit>> cb;
 
+  /**
+   * The executor that the evaluation continues on after this action completes, given the one it
+   * is running on now.
+   */
+  Executor resumeOn(Executor current) {
+    return current;
+  }
+
   @Override
   public String toString() {
     return "async(.)";
   }
-}
\ No newline at end of file
+}
+
+/**
+ * Async boundary that shifts the evaluation to {@code executor}. The interpreter remembers the
+ * executor so that it can reschedule itself on it (see {@link IORun#setAutoYieldBudget(int)}).
+ */
+class Fork extends Async<Unit> {
+
+  final Executor executor;
+
+  Fork(Executor executor) {
+    super(onFinish -> {
+      executor.execute(() -> onFinish.run(Right(Unit.unit)));
+      return IO.unit;
+    });
+    this.executor = executor;
+  }
+
+  @Override
+  Executor resumeOn(Executor current) {
+    return executor;
+  }
+
+  @Override
+  public String toString() {
+    return "fork(" + executor + ")";
+  }
+}
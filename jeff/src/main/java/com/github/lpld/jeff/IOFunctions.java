@@ -1,8 +1,11 @@
 package com.github.lpld.jeff;
 
+import com.github.lpld.jeff.functions.Fn;
 import com.github.lpld.jeff.functions.Fn2;
 
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.Executor;
 
 import lombok.AccessLevel;
 import lombok.NoArgsConstructor;
@@ -22,6 +25,31 @@ public final class IOFunctions {
     return io1.flatMap(t1 -> io2.flatMap(t2 -> f.ap(t1, t2)));
   }
 
+  /**
+   * Apply {@code f} to every element of {@code list} and evaluate the resulting IOs concurrently
+   * on {@code executor}, with at most {@code maxConcurrency} of them running at the same time.
+   * The resulting list preserves the order of {@code list}.
+   *
+   * If any of the IOs fails, the traversal fails with the same error and the IOs that are still
+   * running are cancelled. Cancelling the traversal cancels the IOs that are running.
+   */
+  public static <A, B> IO<List<B>> parTraverse(Executor executor, int maxConcurrency,
+                                               List<A> list, Fn<A, IO<B>> f) {
+    if (maxConcurrency <= 0) {
+      throw new IllegalArgumentException("maxConcurrency must be positive: " + maxConcurrency);
+    }
+    return IO.cancellable(callback -> new ParTraverse<>(executor, maxConcurrency, list, f, callback)
+        .start());
+  }
+
+  /**
+   * Shortcut for {@code parTraverse(executor, maxConcurrency, ios, Fn.id())}.
+   */
+  public static <A> IO<List<A>> parSequence(Executor executor, int maxConcurrency,
+                                            List<IO<A>> ios) {
+    return parTraverse(executor, maxConcurrency, ios, Fn.id());
+  }
+
   public static <T1, T2, T3> Optional<T3> map2Opt(Optional<T1> o1, Optional<T2> o2, Fn2<T1, T2, T3> f) {
     return o1.flatMap(t1 -> o2.map(t2 -> f.ap(t1, t2)));
   }
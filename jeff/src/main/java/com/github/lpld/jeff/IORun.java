@@ -1,152 +1,504 @@
 package com.github.lpld.jeff;
 
-import com.github.lpld.jeff.LList.LCons;
-import com.github.lpld.jeff.LList.LNil;
+import com.github.lpld.jeff.data.Or;
 import com.github.lpld.jeff.data.Unit;
 import com.github.lpld.jeff.functions.Fn;
+import com.github.lpld.jeff.functions.Run1;
 
+import java.util.Arrays;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.function.Function;
-import java.util.function.UnaryOperator;
+import java.util.concurrent.locks.LockSupport;
 
 import lombok.RequiredArgsConstructor;
 
-import static com.github.lpld.jeff.IO.pure;
-
 /**
+ * IO interpreter.
+ *
+ * The run loop keeps continuations of {@link Bind} nodes, {@link Map} nodes and recovery frames
+ * of {@link Handler} nodes on a single array-backed {@link CallStack}, so that evaluating a bind
+ * or a map does not allocate anything besides what user functions allocate themselves. The same
+ * holds for unwinding the stack on error: handlers of {@link Attempt} and {@link RecoverValue}
+ * frames produce values that are passed to the next continuation as is, without wrapping them
+ * into IOs.
+ *
  * @author leopold
  * @since 20/10/18
  */
 public final class IORun {
 
-  static <T> CompletableFuture<T> runAsync(IO<T> io, RunningIO runningIO) {
-    return doRun(io, new CallStack<>(), runningIO, new CompletableFuture<>());
+  // returned by recover() when the evaluation must be resumed with CallStack#recovered value
+  private static final IO<Object> RECOVERED = new Pure<>(null);
+
+  private static volatile int autoYieldBudget = Integer.getInteger("jeff.autoYieldBudget", 1024);
+
+  /**
+   * Number of steps the interpreter evaluates before it reschedules itself on the executor it is
+   * currently running on (the one that was set by {@link IO#forked(Executor)}), giving other IOs
+   * that share this executor a chance to run. Zero or negative value disables automatic yielding.
+   *
+   * The default value is 1024 and can be overridden by {@code jeff.autoYieldBudget} system
+   * property.
+   */
+  public static int getAutoYieldBudget() {
+    return autoYieldBudget;
   }
 
-  private static <T, U, V> CompletableFuture<T> doRun(IO<T> io, CallStack<T> stack,
-                                                      RunningIO runningIO,
-                                                      CompletableFuture<T> resultPromise) {
+  public static void setAutoYieldBudget(int budget) {
+    autoYieldBudget = budget;
+  }
 
-    while (true) {
-      try {
-        io = unwrap(io, stack, Fn.id());
+  static <T> CompletableFuture<T> runAsync(IO<T> io, RunningIO runningIO) {
+    final CompletableFuture<T> promise = new CompletableFuture<>();
+    final JeffRuntimeMetrics metrics = JeffRuntimeMetrics.active;
+    if (metrics == null) {
+      start(io, runningIO, result -> result.forEach(promise::completeExceptionally,
+                                                    promise::complete));
+    } else {
+      metrics.runStarted();
+      start(io, runningIO, result -> {
+        metrics.runCompleted(result.isLeft());
+        result.forEach(promise::completeExceptionally, promise::complete);
+      });
+    }
+    return promise;
+  }
 
-        if (io instanceof Pure) {
-          return Futures.completed(resultPromise, ((Pure<T>) io).pure);
-        }
+  /**
+   * Run {@code io} on current thread and wait for the result. If {@code stats} is not
+   * {@code null}, statistics of the run are collected into it.
+   *
+   * As long as there are no async boundaries, the whole evaluation happens inside this call and
+   * nothing but the callback is allocated. Otherwise the thread parks until the callback is
+   * called by the thread that completes the run.
+   */
+  @SuppressWarnings("unchecked")
+  static <T> T runSync(IO<T> io, IOStats stats) {
+    final SyncCallback callback = new SyncCallback(stats);
+    doRun(io, null, new CallStack(stats), UncancellableIOTask.INSTANCE, callback, null);
+    return (T) callback.await();
+  }
 
-        if (io instanceof Async) {
-          return executeAsync(resultPromise, runningIO, (Async<T>) io);
-        }
+  /**
+   * Start evaluating {@code io} on current thread. {@code callback} is called exactly once
+   * when the evaluation completes, either on current thread (if there were no async boundaries)
+   * or on a thread where the last async boundary has been resumed.
+   */
+  static <T> void start(IO<T> io, RunningIO runningIO, Run1<Or<Throwable, T>> callback) {
+    start(io, runningIO, null, callback);
+  }
 
-        if (io instanceof Bind) {
-          stack.stackPush();
-          final Bind<U, T> bind = (Bind<U, T>) io;
-          final IO<U> source = unwrap(bind.source, stack, u -> u.flatMap(bind.f));
+  /**
+   * Same as {@link #start(IO, RunningIO, Run1)}, but current thread is known to be running on
+   * {@code executor}: e.g. {@link IO#blocking} in {@code io} resumes on it.
+   */
+  @SuppressWarnings("unchecked")
+  static <T> void start(IO<T> io, RunningIO runningIO, Executor executor,
+                        Run1<Or<Throwable, T>> callback) {
+    final Run1<Or<Throwable, Object>> cb = (Run1<Or<Throwable, Object>>) (Run1<?>) callback;
+    runningIO.attach(cb);
+    doRun(io, null, new CallStack(), runningIO, cb, executor);
+  }
 
-          if (source instanceof Async) {
-            final CompletableFuture<U> promise = new CompletableFuture<>();
-            final Fn<U, IO<T>> f = bind.f;
+  /**
+   * The run loop. If {@code io} is {@code null}, the evaluation is resumed with {@code value}
+   * that has to be passed to the topmost continuation.
+   */
+  @SuppressWarnings("unchecked")
+  private static void doRun(IO<?> io, Object value, CallStack stack, RunningIO runningIO,
+                            Run1<Or<Throwable, Object>> callback, Executor executor) {
 
-            // we want to register `thenAccept` callback before the async callback is called,
-            // because we want to remain in async callback's thread. If we don't do this and if
-            // async callback is very short, we might call `thenAccept` on a future that is already
-            // completed, and `thenAccept` will be executed in current thread, which is not a
-            // desirable behavior.
+    final int yieldBudget = executor == null ? 0 : autoYieldBudget;
+    final IOStats stats = stack.stats;
+    int steps = 0;
 
-            promise.thenAccept(u -> doRun(f.ap(u), stack, runningIO, resultPromise));
+    while (true) {
+      try {
+        if (io != null) {
 
-            executeAsync(promise, runningIO, (Async<U>) source);
+          if (yieldBudget > 0 && ++steps == yieldBudget) {
+            // cede: continue on the same executor after the IOs that are already waiting for it.
+            final IO<?> next = io;
+            io = IO.forked(executor).flatMap(u -> next);
+          }
 
-            return resultPromise;
+          if (io instanceof Pure) {
+            value = ((Pure<?>) io).pure;
+          } else if (io instanceof Delay) {
+            if (stats != null) {
+              stats.delays++;
+            }
+            value = ((Delay<?>) io).thunk.ap();
+          } else if (io instanceof Bind) {
+            if (stats != null) {
+              stats.binds++;
+            }
+            stack.push(((Bind<?, ?>) io).f);
+            io = ((Bind<?, ?>) io).source;
+            continue;
+          } else if (io instanceof Map) {
+            if (stats != null) {
+              stats.maps++;
+            }
+            stack.push(io);
+            io = ((Map<?, ?>) io).source;
+            continue;
+          } else if (io instanceof Suspend) {
+            if (stats != null) {
+              stats.suspends++;
+            }
+            io = ((Suspend<?>) io).resume.ap();
+            continue;
+          } else if (io instanceof Handler) {
+            if (stats != null) {
+              stats.recovers++;
+            }
+            stack.push(io);
+            io = ((Handler<?>) io).io;
+            continue;
+          } else if (io instanceof Fail) {
+            throw ((Fail<?>) io).err.ap();
+          } else if (io instanceof Blocking) {
+            io = ((Blocking<?>) io).shift(executor);
+            continue;
+          } else if (io instanceof OnExecutor) {
+            io = ((OnExecutor<?>) io).f.ap(executor);
+            continue;
+          } else {
+            if (stats != null) {
+              stats.asyncs++;
+            }
+            final Executor resumeOn = ((Async<?>) io).resumeOn(executor);
+            final AsyncCallback asyncCallback =
+                new AsyncCallback(stack, runningIO, callback, resumeOn);
+
+            final boolean started;
+            try {
+              started = executeAsync(runningIO, (Async<Object>) io, asyncCallback);
+            } catch (Throwable err) {
+              asyncCallback.abandon();
+              throw err;
+            }
+
+            if (!started) {
+              asyncCallback.abandon();
+              callback.run(Or.Left(StacklessCancellationException.INSTANCE));
+              return;
+            }
+
+            if (stats != null) {
+              // must be recorded before suspending: the callback may resume the run right after
+              stats.suspending();
+            }
+            if (asyncCallback.suspend()) {
+              // the callback will resume the evaluation
+              final JeffRuntimeMetrics metrics = JeffRuntimeMetrics.active;
+              if (metrics != null) {
+                metrics.asyncHop();
+              }
+              return;
+            }
+            if (!asyncEnded(runningIO)) {
+              // the IO has been cancelled
+              return;
+            }
+
+            // the callback has been called during the registration, so we just carry on:
+            final Or<Throwable, Object> result = asyncCallback.result();
+            if (resumeOn != executor && asyncCallback.isHandedOver()) {
+              // e.g. a fork whose task has already run on another thread: this thread doesn't
+              // belong to the target executor, so the evaluation must continue there
+              final Executor target = resumeOn;
+              final JeffRuntimeMetrics metrics = JeffRuntimeMetrics.active;
+              if (metrics != null) {
+                metrics.asyncHop();
+              }
+              target.execute(() -> {
+                if (stats != null) {
+                  stats.resumed();
+                }
+                resume(result, stack, runningIO, callback, target);
+              });
+              return;
+            }
+            if (result.isLeft()) {
+              throw result.getLeft();
+            }
+            value = result.getRight();
+            executor = resumeOn;
           }
+        }
 
-          if (source instanceof Pure) {
-            io = bind.f.ap(((Pure<U>) source).pure);
-          } else if (source instanceof Bind) {
-            final Bind<V, U> bind2 = (Bind<V, U>) source;
-            io = bind2.source.flatMap(a -> bind2.f.ap(a).flatMap(bind.f));
+        Object frame;
+        while (true) {
+          frame = stack.popContinuation();
+          if (frame instanceof Map) {
+            value = ((Map<Object, Object>) frame).f.ap(value);
+          } else if (frame instanceof Attempt) {
+            value = Or.Right(value);
+          } else {
+            break;
           }
-        } else {
-          stack.stackPop();
         }
-      } catch (Throwable err) {
-        final Optional<IO<T>> result = stack.tryHandle(err);
 
-        if (result.isPresent()) {
-          io = result.get();
-        } else {
-          return Futures.failed(err);
+        if (frame == null) {
+          break;
+        }
+
+        io = ((Fn<Object, IO<?>>) frame).ap(value);
+      } catch (Throwable err) {
+        io = recover(stack, err, callback);
+        if (io == null) {
+          return;
+        }
+        if (io == RECOVERED) {
+          io = null;
+          value = stack.takeRecovered();
         }
       }
     }
+
+    callback.run(Or.Right(value));
+  }
+
+  /**
+   * Continue the evaluation after an async boundary.
+   */
+  private static void resume(Or<Throwable, Object> result, CallStack stack, RunningIO runningIO,
+                             Run1<Or<Throwable, Object>> callback, Executor executor) {
+    if (result.isRight()) {
+      doRun(null, result.getRight(), stack, runningIO, callback, executor);
+    } else {
+      final IO<?> io = recover(stack, result.getLeft(), callback);
+      if (io == RECOVERED) {
+        doRun(null, stack.takeRecovered(), stack, runningIO, callback, executor);
+      } else if (io != null) {
+        doRun(io, null, stack, runningIO, callback, executor);
+      }
+    }
   }
 
-  private static <T, U> IO<T> unwrap(IO<T> io, CallStack<U> stack,
-                                     Fn<IO<T>, IO<U>> f) throws Throwable {
+  /**
+   * Unwind the stack up to the nearest recovery frame that can handle the error. If the handler
+   * produces a value, it is stored in the stack and {@link #RECOVERED} is returned. If there is no
+   * such frame, {@code callback} is called with the error and {@code null} is returned.
+   */
+  @SuppressWarnings("unchecked")
+  private static IO<?> recover(CallStack stack, Throwable err,
+                               Run1<Or<Throwable, Object>> callback) {
+
+    if (stack.stats != null) {
+      stack.stats.unwinds++;
+    }
 
-    while (true) {
-      if (io instanceof Fail) {
-        throw ((Fail<T>) io).err.ap();
-      } else if (io instanceof Recover) {
-        IO<T> finalIo = io;
-        stack.addRecoveryRule(err -> ((Recover<T>) finalIo).recover.apply(err).map(f::ap));
-        io = ((Recover<T>) io).io;
-      } else if (io instanceof Suspend) {
-        io = ((Suspend<T>) io).resume.ap();
-      } else if (io instanceof Delay) {
-        return pure(((Delay<T>) io).thunk.ap());
-      } else {
-        return io;
+    Handler<?> frame;
+    while ((frame = stack.popRecovery()) != null) {
+      if (frame instanceof Attempt) {
+        stack.setRecovered(Or.Left(err));
+        return RECOVERED;
+      }
+      try {
+        if (frame instanceof RecoverValue) {
+          final Optional<Object> result = ((RecoverValue<Object>) frame).recover.apply(err);
+          if (result.isPresent()) {
+            stack.setRecovered(result.get());
+            return RECOVERED;
+          }
+        } else {
+          final Optional<IO<Object>> result = ((Recover<Object>) frame).recover.apply(err);
+          if (result.isPresent()) {
+            return result.get();
+          }
+        }
+      } catch (Throwable recoveryErr) {
+        err = recoveryErr;
       }
     }
+
+    callback.run(Or.Left(err));
+    return null;
   }
 
-  private static <T> CompletableFuture<T> executeAsync(CompletableFuture<T> promise,
-                                                       RunningIO runningIO,
-                                                       Async<T> async) {
+  /**
+   * Register {@code callback} within {@code async}. Returns {@code false} if the IO has been
+   * cancelled and the run loop must not continue.
+   */
+  private static boolean executeAsync(RunningIO runningIO, Async<Object> async,
+                                      AsyncCallback callback) {
 
-    if (runningIO.isCancellable()) {
-      final RunState state = runningIO.updateAndGetState(st -> new RunState(st.isCancelled,
-                                                                            st.cancellingNow,
-                                                                            true));
+    if (!runningIO.beginAsync()) {
+      return false;
+    }
 
-      if (state.isCancelled || state.cancellingNow) {
-        return Futures.cancelled(promise);
-      }
+    final IO<Unit> cancelLogic;
+    try {
+      cancelLogic = async.cb.ap(callback);
+    } catch (Throwable err) {
+      runningIO.asyncFailed();
+      throw err;
+    }
+
+    if (!runningIO.asyncStarted(cancelLogic)) {
+      return false;
+    }
+    final JeffRuntimeMetrics metrics = JeffRuntimeMetrics.active;
+    if (metrics != null) {
+      metrics.asyncStarted();
+    }
+    return true;
+  }
+
+  /**
+   * Complete the current async action of the run, see {@link RunningIO#endAsync()}.
+   */
+  private static boolean asyncEnded(RunningIO runningIO) {
+    if (!runningIO.endAsync()) {
+      return false;
+    }
+    final JeffRuntimeMetrics metrics = JeffRuntimeMetrics.active;
+    if (metrics != null) {
+      metrics.asyncEnded();
     }
+    return true;
+  }
 
-    runningIO.setCancelLogic(async.cb.ap(result -> result.forEach(
-        promise::completeExceptionally,
-        promise::complete
-    )));
+  /**
+   * Callback of {@link #runSync}.
+   */
+  private static final class SyncCallback implements Run1<Or<Throwable, Object>> {
 
-    promise.thenRun(() -> runningIO.setCancelLogic(IO.unit));
+    private final Thread waiter = Thread.currentThread();
+    private final IOStats stats;
+    private final JeffRuntimeMetrics metrics = JeffRuntimeMetrics.active;
+    private volatile Or<Throwable, Object> result;
 
-    if (runningIO.isCancellable()) {
-      // todo: rethink this logic. Can we miss a cancellation request?
-      final RunState newState =
-          runningIO.updateAndGetState(st -> new RunState(st.isCancelled, st.cancellingNow, false));
+    SyncCallback(IOStats stats) {
+      this.stats = stats;
+      if (metrics != null) {
+        metrics.runStarted();
+      }
+    }
 
-      if (newState.cancellingNow) {
-        runningIO.cancelNow();
+    @Override
+    public void run(Or<Throwable, Object> result) {
+      if (stats != null) {
+        stats.completed();
+      }
+      if (metrics != null) {
+        metrics.runCompleted(result.isLeft());
+      }
+      this.result = result;
+      if (Thread.currentThread() != waiter) {
+        LockSupport.unpark(waiter);
       }
     }
 
-    return promise;
+    Object await() {
+      Or<Throwable, Object> res = result;
+      if (res == null) {
+        WorkStealingPool.beforeBlocking();
+        while ((res = result) == null) {
+          LockSupport.park(this);
+          if (Thread.interrupted()) {
+            return WrappedError.throwWrapped(new InterruptedException());
+          }
+        }
+      }
+      return res.isRight() ? res.getRight() : WrappedError.throwWrapped(res.getLeft());
+    }
   }
-}
 
-@RequiredArgsConstructor
-class RunState {
+  /**
+   * Callback that is injected into an {@link Async} action. It resumes the run loop directly,
+   * unless it is called while the action is still being registered: in that case it only stores
+   * the result, which is then picked up by the run loop itself once the registration ends, so
+   * that the stack does not grow and no thread has to wait for another one.
+   *
+   * The state is a single atomic reference: {@code null} while registering, {@link #SUSPENDED}
+   * after the registration, {@link #COMPLETED} after the run has been resumed (or abandoned), or
+   * the result delivered during the registration. Storing the result is the same atomic step as
+   * completing the callback, so any later call is ignored.
+   */
+  @RequiredArgsConstructor
+  private static final class AsyncCallback extends AtomicReference<Object>
+      implements Run1<Or<Throwable, Object>> {
+
+    private static final Object SUSPENDED = new Object();
+    private static final Object COMPLETED = new Object();
+
+    private final CallStack stack;
+    private final RunningIO runningIO;
+    private final Run1<Or<Throwable, Object>> callback;
+    private final Executor executor;
+    private final Thread registeringThread = Thread.currentThread();
+
+    /**
+     * Called by the run loop after the async action is registered. Returns {@code false} if the
+     * callback has already been called: the result is available from {@link #result()} then.
+     */
+    boolean suspend() {
+      return compareAndSet(null, SUSPENDED);
+    }
+
+    /**
+     * Called by the run loop if the registration of the async action has failed. Any later call
+     * of the callback will be ignored.
+     */
+    void abandon() {
+      set(COMPLETED);
+    }
+
+    /**
+     * The result that has been delivered during the registration.
+     */
+    @SuppressWarnings("unchecked")
+    Or<Throwable, Object> result() {
+      final Object state = get();
+      return state instanceof HandOver ? ((HandOver) state).result : (Or<Throwable, Object>) state;
+    }
+
+    /**
+     * Whether the result has been delivered during the registration by another thread.
+     */
+    boolean isHandedOver() {
+      return get() instanceof HandOver;
+    }
+
+    @Override
+    public void run(Or<Throwable, Object> result) {
+      final Object state = get();
+
+      if (state == null) {
+        // the registration is still in progress, so leave the result to the run loop (the
+        // wrapper is only allocated in the rare case of a race with another thread):
+        final Object delivered = Thread.currentThread() == registeringThread
+                                 ? result : new HandOver(result);
+        if (compareAndSet(null, delivered)) {
+          return;
+        }
+      }
 
-  public static final RunState INITIAL = new RunState(false, false, false);
+      if (compareAndSet(SUSPENDED, COMPLETED) && asyncEnded(runningIO)) {
+        if (stack.stats != null) {
+          stack.stats.resumed();
+        }
+        resume(result, stack, runningIO, callback, executor);
+      }
+      // otherwise the callback has already been called
+    }
+  }
 
-  final boolean isCancelled;
-  final boolean cancellingNow;
-  final boolean startingNow;
+  /**
+   * Result of an async action that has been delivered by another thread during the registration.
+   */
+  @RequiredArgsConstructor
+  private static final class HandOver {
+
+    final Or<Throwable, Object> result;
+  }
 }
 
 interface CancellableIO extends RunningIO {
@@ -158,15 +510,42 @@ interface CancellableIO extends RunningIO {
   }
 }
 
+/**
+ * Cancellation protocol between the run loop and the party that can cancel it. Every async
+ * boundary is surrounded with {@code beginAsync}, {@code asyncStarted} (or {@code asyncFailed}) and
+ * {@code endAsync} calls.
+ */
 interface RunningIO {
 
-  boolean isCancellable();
-
-  RunState updateAndGetState(UnaryOperator<RunState> u);
-
-  void setCancelLogic(IO<Unit> cancelLogic);
-
-  void cancelNow();
+  /**
+   * Called by {@link IORun#start} with the callback of the run.
+   */
+  void attach(Run1<Or<Throwable, Object>> callback);
+
+  /**
+   * Called before an async action is registered. Returns {@code false} if the IO has been
+   * cancelled: the run loop must complete with cancellation then.
+   */
+  boolean beginAsync();
+
+  /**
+   * Called after the async action has been registered. Returns {@code false} if the IO has been
+   * cancelled during the registration: {@code cancelLogic} has been executed and the run loop
+   * must complete with cancellation.
+   */
+  boolean asyncStarted(IO<Unit> cancelLogic);
+
+  /**
+   * Called if the registration of the async action has failed.
+   */
+  void asyncFailed();
+
+  /**
+   * Called when the async action completes. Returns {@code false} if the IO has been cancelled
+   * while the action was running: the run has already been completed with cancellation and the
+   * run loop must not continue.
+   */
+  boolean endAsync();
 }
 
 class UncancellableIOTask implements RunningIO {
@@ -174,137 +553,231 @@ class UncancellableIOTask implements RunningIO {
   public static final UncancellableIOTask INSTANCE = new UncancellableIOTask();
 
   @Override
-  public boolean isCancellable() {
-    return false;
+  public void attach(Run1<Or<Throwable, Object>> callback) {
+
   }
 
   @Override
-  public RunState updateAndGetState(UnaryOperator<RunState> u) {
-    return RunState.INITIAL;
+  public boolean beginAsync() {
+    return true;
   }
 
   @Override
-  public void setCancelLogic(IO<Unit> cancelLogic) {
-
+  public boolean asyncStarted(IO<Unit> cancelLogic) {
+    return true;
   }
 
   @Override
-  public void cancelNow() {
+  public void asyncFailed() {
 
   }
+
+  @Override
+  public boolean endAsync() {
+    return true;
+  }
 }
 
+/**
+ * Lock-free cancellation state machine. The state is a bitfield:
+ *
+ * <pre>
+ *  transition                 | from                     | to
+ * ----------------------------+--------------------------+-----------------------------------
+ *  beginAsync                 | IDLE                     | STARTING
+ *  beginAsync (fails)         | CANCEL_REQUESTED         | -
+ *  asyncStarted               | STARTING                 | ASYNC
+ *  asyncStarted (fails)       | STARTING|CANCEL_REQUESTED| CANCELLED, runs cancel logic
+ *  asyncFailed                | STARTING[|CANCEL_REQ.]   | IDLE[|CANCEL_REQUESTED]
+ *  endAsync                   | ASYNC                    | IDLE
+ *  endAsync (fails)           | CANCELLED                | -
+ *  cancel (synchronous part)  | IDLE                     | CANCEL_REQUESTED
+ *  cancel (during start)      | STARTING                 | STARTING|CANCEL_REQUESTED
+ *  cancel (during async)      | ASYNC                    | CANCELLED, runs cancel logic
+ * </pre>
+ *
+ * A cancellation requested while the IO is running synchronously is observed at the next async
+ * boundary. A cancellation that races with the registration of an async action is handed over to
+ * the registering thread, so it can never be missed. For an async action that is in flight,
+ * exactly one of {@code endAsync} and {@code cancel} wins, and the winner is the one who
+ * continues (or completes) the run.
+ */
 class CancellableIOTask implements RunningIO, CancellableIO {
 
-  private final AtomicReference<RunState> state = new AtomicReference<>(RunState.INITIAL);
-  private IO<Unit> cancelAction = IO.unit;
+  private static final int IDLE = 0;
+  private static final int STARTING = 1;
+  private static final int ASYNC = 1 << 1;
+  private static final int CANCEL_REQUESTED = 1 << 2;
+  private static final int CANCELLED = 1 << 3;
+
+  private final AtomicInteger state = new AtomicInteger(IDLE);
+  private volatile IO<Unit> cancelAction = IO.unit;
+  private Run1<Or<Throwable, Object>> callback;
 
   @Override
-  public boolean isCancellable() {
-    return true;
+  public void attach(Run1<Or<Throwable, Object>> callback) {
+    this.callback = callback;
   }
 
   @Override
-  public RunState updateAndGetState(UnaryOperator<RunState> u) {
-    return state.updateAndGet(u);
+  public boolean beginAsync() {
+    if (state.compareAndSet(IDLE, STARTING)) {
+      return true;
+    }
+    // the cancellation that has been requested while running synchronously takes effect:
+    cancelled();
+    return false;
   }
 
   @Override
-  public void setCancelLogic(IO<Unit> cancelLogic) {
+  public boolean asyncStarted(IO<Unit> cancelLogic) {
     this.cancelAction = cancelLogic;
+
+    if (state.compareAndSet(STARTING, ASYNC)) {
+      return true;
+    }
+
+    // cancellation has been requested during the registration:
+    state.set(CANCELLED);
+    cancelled();
+    runCancelAction(cancelLogic);
+    return false;
   }
 
   @Override
-  public void cancelNow() {
-    // todo: if an error happens here, we will ignore it, but is it OK?
-    this.cancelAction.runAsync();
+  public void asyncFailed() {
+    int st;
+    do {
+      st = state.get();
+    } while (!state.compareAndSet(st, st & ~STARTING));
   }
 
   @Override
-  public void cancel() {
-    final RunState prevState =
-        this.state.getAndUpdate(st -> new RunState(st.isCancelled, true, st.startingNow));
-
-    if (prevState.isCancelled || prevState.startingNow || prevState.cancellingNow) {
-      return;
+  public boolean endAsync() {
+    if (state.compareAndSet(ASYNC, IDLE)) {
+      this.cancelAction = IO.unit;
+      return true;
     }
-
-    cancelNow();
-
-    state.set(new RunState(true, false, false));
+    return false;
   }
-}
-
-class CallStack<T> {
 
-  private CallItem<T> top = new CallItem<>(null);
+  @Override
+  public void cancel() {
+    int st;
+    do {
+      st = state.get();
 
-  void stackPush() {
-    top.callCount++;
-  }
+      if ((st & (CANCEL_REQUESTED | CANCELLED)) != 0) {
+        return;
+      }
+    } while (!state.compareAndSet(st, st == ASYNC ? CANCELLED : st | CANCEL_REQUESTED));
 
-  void stackPop() {
-    if (top.callCount > 0) {
-      top.callCount--;
-    } else {
-      top = top.prev;
+    if (st == ASYNC) {
+      final JeffRuntimeMetrics metrics = JeffRuntimeMetrics.active;
+      if (metrics != null) {
+        metrics.asyncEnded();
+      }
+      cancelled();
+      runCancelAction(cancelAction);
+      callback.run(Or.Left(StacklessCancellationException.INSTANCE));
     }
   }
 
-  void addRecoveryRule(Function<Throwable, Optional<IO<T>>> rule) {
-    if (top.callCount > 0) {
-      top.callCount--;
-      top = new CallItem<>(top);
+  /**
+   * Count a cancellation that has taken effect. A cancellation that is only requested is counted
+   * when the run observes it at an async boundary, so cancelling a run that has already completed
+   * isn't counted.
+   */
+  private static void cancelled() {
+    final JeffRuntimeMetrics metrics = JeffRuntimeMetrics.active;
+    if (metrics != null) {
+      metrics.cancelled();
     }
-    top.addRule(rule);
   }
 
-  Optional<IO<T>> tryHandle(Throwable err) {
+  private static void runCancelAction(IO<Unit> cancelAction) {
+    // todo: if an error happens here, we will ignore it, but is it OK?
+    IORun.start(cancelAction, UncancellableIOTask.INSTANCE, ignore -> {
+    });
+  }
+}
 
-    while (top != null) {
+/**
+ * Array-backed stack of interpreter frames. A frame is either a bind continuation
+ * ({@code Fn<Object, IO<?>>}), a {@link Map} node or a {@link Handler} node. An {@link Attempt}
+ * frame is popped both as a continuation and as a recovery frame.
+ */
+class CallStack {
 
-      top.callCount = 0;
-      Optional<IO<T>> result = top.tryHandle(err);
+  // statistics of the run, null unless they have been requested
+  final IOStats stats;
 
-      if (top.rules.isEmpty()) {
-        top = top.prev;
-      }
+  private Object[] frames;
+  private int size;
+  // the value produced by the last recovery frame, see IORun#recover
+  private Object recovered;
 
-      if (result.isPresent()) {
-        return result;
-      }
-    }
-    return Optional.empty();
+  CallStack() {
+    this(null);
   }
-}
 
-@lombok.RequiredArgsConstructor
-class CallItem<T> {
+  CallStack(IOStats stats) {
+    this.stats = stats;
+  }
 
-  final CallItem<T> prev;
-  int callCount = 0;
-  LList<Function<Throwable, Optional<IO<T>>>> rules = LNil.instance();
+  boolean isEmpty() {
+    return size == 0;
+  }
 
-  void addRule(Function<Throwable, Optional<IO<T>>> rule) {
-    rules = rules.prepend(rule);
+  void push(Object frame) {
+    if (frames == null) {
+      frames = new Object[16];
+    } else if (size == frames.length) {
+      frames = Arrays.copyOf(frames, size << 1);
+    }
+    frames[size++] = frame;
   }
 
-  Optional<IO<T>> tryHandle(Throwable err) {
-    while (rules.isNotEmpty()) {
-      final Function<Throwable, Optional<IO<T>>> head =
-          ((LCons<Function<Throwable, Optional<IO<T>>>>) rules).head;
+  void setRecovered(Object value) {
+    recovered = value;
+  }
 
-      rules =
-          ((LCons<Function<Throwable, Optional<IO<T>>>>) rules).tail;
+  Object takeRecovered() {
+    final Object value = recovered;
+    recovered = null;
+    return value;
+  }
 
-      final Optional<IO<T>> result = head.apply(err);
-      if (result.isPresent()) {
-        return result;
+  /**
+   * Pop the nearest bind continuation, {@link Map} or {@link Attempt} frame, discarding recovery
+   * frames on the way, since there is no error to handle. Returns {@code null} if the stack is
+   * empty.
+   */
+  Object popContinuation() {
+    while (size > 0) {
+      final Object frame = frames[--size];
+      frames[size] = null;
+
+      if (!(frame instanceof Handler) || frame instanceof Attempt) {
+        return frame;
       }
-
     }
-    return Optional.empty();
+    return null;
   }
 
-
+  /**
+   * Pop the nearest recovery frame, discarding bind continuations on the way. Returns
+   * {@code null} if the stack is empty.
+   */
+  Handler<?> popRecovery() {
+    while (size > 0) {
+      final Object frame = frames[--size];
+      frames[size] = null;
+
+      if (frame instanceof Handler) {
+        return (Handler<?>) frame;
+      }
+    }
+    return null;
+  }
 }
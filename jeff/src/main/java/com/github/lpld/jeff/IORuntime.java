@@ -0,0 +1,106 @@
+package com.github.lpld.jeff;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Runtime resources that are used by IOs when no executor is passed explicitly, e.g. by
+ * {@link IO#fork()} and {@link IO#forked()}.
+ *
+ * The compute scheduler is a work-stealing pool with one worker per CPU core (this number can be
+ * overridden with {@code jeff.computeThreads} system property). It is intended for CPU-bound work
+ * only: blocking calls should be wrapped in {@link IO#blocking}.
+ *
+ * Timers (e.g. {@link IO#sleep(long)}) are served by a hashed timer wheel with 1 millisecond
+ * resolution. Expired timers are dispatched to the compute scheduler.
+ *
+ * Metrics of the interpreter can be exposed over JMX with {@link #enableMetrics()}.
+ */
+public final class IORuntime {
+
+  private final WorkStealingPool compute;
+  private final TimerWheel timer;
+
+  private IORuntime(int parallelism) {
+    this.compute = new WorkStealingPool("jeff-compute", parallelism);
+    this.timer = new TimerWheel("jeff-timer", compute, 1, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * The runtime that is shared by all IOs. It is created on first use.
+   */
+  public static IORuntime global() {
+    return Global.INSTANCE;
+  }
+
+  /**
+   * Create a separate runtime with {@code parallelism} compute threads. Unlike the global one, it
+   * should be shut down when not needed anymore.
+   */
+  public static IORuntime create(int parallelism) {
+    return new IORuntime(parallelism);
+  }
+
+  public Executor compute() {
+    return compute;
+  }
+
+  TimerWheel timer() {
+    return timer;
+  }
+
+  public int parallelism() {
+    return compute.parallelism();
+  }
+
+  /**
+   * Stop the threads of this runtime. Tasks that haven't been started yet are discarded.
+   */
+  public void shutdown() {
+    timer.shutdown();
+    compute.shutdown();
+  }
+
+  /**
+   * Start recording interpreter metrics and register {@link JeffRuntimeMXBean} in the platform
+   * MBean server. Calling this method again returns the MBean that is already registered.
+   */
+  public static synchronized JeffRuntimeMXBean enableMetrics() {
+    if (JeffRuntimeMetrics.active == null) {
+      final JeffRuntimeMetrics metrics = new JeffRuntimeMetrics();
+      final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      try {
+        server.registerMBean(metrics, new ObjectName(JeffRuntimeMetrics.OBJECT_NAME));
+      } catch (JMException err) {
+        throw new IllegalStateException("Failed to register " + JeffRuntimeMetrics.OBJECT_NAME, err);
+      }
+      JeffRuntimeMetrics.active = metrics;
+    }
+    return JeffRuntimeMetrics.active;
+  }
+
+  /**
+   * Stop recording interpreter metrics and unregister the MBean.
+   */
+  public static synchronized void disableMetrics() {
+    if (JeffRuntimeMetrics.active != null) {
+      JeffRuntimeMetrics.active = null;
+      try {
+        ManagementFactory.getPlatformMBeanServer()
+            .unregisterMBean(new ObjectName(JeffRuntimeMetrics.OBJECT_NAME));
+      } catch (JMException ignored) {
+        // already unregistered by someone else
+      }
+    }
+  }
+
+  private static final class Global {
+    static final IORuntime INSTANCE = new IORuntime(
+        Integer.getInteger("jeff.computeThreads", Runtime.getRuntime().availableProcessors()));
+  }
+}
@@ -0,0 +1,124 @@
+package com.github.lpld.jeff;
+
+/**
+ * Counters that the interpreter collects during a single run, see {@link IO#runWithStats()}.
+ *
+ * Only the steps of the run itself are counted: IOs that are evaluated by separate runs (e.g.
+ * fibers created with {@link IO#start}, branches of {@link IO#race} or the guarded IO of
+ * {@link IO#timeoutTo}) are not included.
+ *
+ * The counters are written by the run loop without synchronization, so they must be read only
+ * after the run has completed.
+ */
+public final class IOStats {
+
+  long binds;
+  long maps;
+  long delays;
+  long suspends;
+  long asyncs;
+  long recovers;
+  long asyncBoundaries;
+  long unwinds;
+  long suspendedNanos;
+
+  private final long startedAt = System.nanoTime();
+  private long suspendedAt;
+  private long elapsedNanos;
+
+  IOStats() {
+  }
+
+  /**
+   * Number of evaluated {@code flatMap} steps.
+   */
+  public long getBinds() {
+    return binds;
+  }
+
+  /**
+   * Number of evaluated {@code map} steps.
+   */
+  public long getMaps() {
+    return maps;
+  }
+
+  /**
+   * Number of evaluated {@link IO#delay} thunks.
+   */
+  public long getDelays() {
+    return delays;
+  }
+
+  /**
+   * Number of evaluated {@link IO#suspend} thunks.
+   */
+  public long getSuspends() {
+    return suspends;
+  }
+
+  /**
+   * Number of evaluated async actions, including forks, sleeps and blocking calls.
+   */
+  public long getAsyncs() {
+    return asyncs;
+  }
+
+  /**
+   * Number of evaluated recovery steps ({@code recover}, {@code recoverWith}, {@code attempt}).
+   */
+  public long getRecovers() {
+    return recovers;
+  }
+
+  /**
+   * Number of async actions that haven't completed synchronously, so the run had to be suspended
+   * and later resumed by a callback.
+   */
+  public long getAsyncBoundaries() {
+    return asyncBoundaries;
+  }
+
+  /**
+   * Number of times the stack has been unwound because of an error.
+   */
+  public long getUnwinds() {
+    return unwinds;
+  }
+
+  /**
+   * Wall time the run has spent suspended at async boundaries, in nanoseconds.
+   */
+  public long getSuspendedNanos() {
+    return suspendedNanos;
+  }
+
+  /**
+   * Wall time of the whole run, in nanoseconds.
+   */
+  public long getElapsedNanos() {
+    return elapsedNanos;
+  }
+
+  // called before the run loop is suspended (the async action may still complete synchronously)
+  void suspending() {
+    suspendedAt = System.nanoTime();
+  }
+
+  void resumed() {
+    asyncBoundaries++;
+    suspendedNanos += System.nanoTime() - suspendedAt;
+  }
+
+  void completed() {
+    elapsedNanos = System.nanoTime() - startedAt;
+  }
+
+  @Override
+  public String toString() {
+    return "IOStats(binds=" + binds + ", maps=" + maps + ", delays=" + delays
+           + ", suspends=" + suspends + ", asyncs=" + asyncs + ", recovers=" + recovers
+           + ", asyncBoundaries=" + asyncBoundaries + ", unwinds=" + unwinds
+           + ", suspendedNanos=" + suspendedNanos + ", elapsedNanos=" + elapsedNanos + ")";
+  }
+}
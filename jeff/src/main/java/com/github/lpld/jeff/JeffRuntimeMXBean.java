@@ -0,0 +1,50 @@
+package com.github.lpld.jeff;
+
+/**
+ * Live metrics of the IO interpreter, registered in the platform MBean server as
+ * {@value JeffRuntimeMetrics#OBJECT_NAME} by {@link IORuntime#enableMetrics()}.
+ *
+ * Runs are counted for IOs that are started with {@link IO#run()} or {@link IO#runAsync()}.
+ * Async actions, hops and cancellations are counted for all runs, including forked fibers.
+ */
+public interface JeffRuntimeMXBean {
+
+  /**
+   * Number of runs that have been started since the metrics were enabled.
+   */
+  long getRunsStarted();
+
+  /**
+   * Number of runs that are currently in flight.
+   */
+  long getRunsInFlight();
+
+  /**
+   * Number of async actions (async callbacks, forks, sleeps, blocking calls) that are currently
+   * waiting for completion.
+   */
+  long getAsyncInFlight();
+
+  /**
+   * Number of async hops: async actions that haven't completed synchronously, so the run has been
+   * suspended and resumed by a callback.
+   */
+  long getAsyncHops();
+
+  /**
+   * Async hops per second since the previous call of this method (or since the metrics were
+   * enabled).
+   */
+  double getAsyncHopRate();
+
+  /**
+   * Number of cancellations that have taken effect, i.e. that have stopped a run. Cancelling a
+   * run that has already completed isn't counted.
+   */
+  long getCancellations();
+
+  /**
+   * Number of runs that have completed with an error.
+   */
+  long getUnhandledFailures();
+}
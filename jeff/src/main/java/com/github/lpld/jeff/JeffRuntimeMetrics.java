@@ -0,0 +1,97 @@
+package com.github.lpld.jeff;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters behind {@link JeffRuntimeMXBean}. They are striped ({@link LongAdder}), so that
+ * concurrent runs don't contend on them. Recording is enabled by setting {@link #active}: while
+ * it is {@code null}, the interpreter only pays for reading a field.
+ */
+final class JeffRuntimeMetrics implements JeffRuntimeMXBean {
+
+  static final String OBJECT_NAME = "com.github.lpld.jeff:type=JeffRuntime";
+
+  static volatile JeffRuntimeMetrics active;
+
+  private final LongAdder runsStarted = new LongAdder();
+  private final LongAdder runsCompleted = new LongAdder();
+  private final LongAdder asyncStarted = new LongAdder();
+  private final LongAdder asyncEnded = new LongAdder();
+  private final LongAdder asyncHops = new LongAdder();
+  private final LongAdder cancellations = new LongAdder();
+  private final LongAdder unhandledFailures = new LongAdder();
+
+  // guarded by this:
+  private long lastHops;
+  private long lastRateAt = System.nanoTime();
+
+  void runStarted() {
+    runsStarted.increment();
+  }
+
+  void runCompleted(boolean failed) {
+    runsCompleted.increment();
+    if (failed) {
+      unhandledFailures.increment();
+    }
+  }
+
+  void asyncStarted() {
+    asyncStarted.increment();
+  }
+
+  void asyncEnded() {
+    asyncEnded.increment();
+  }
+
+  void asyncHop() {
+    asyncHops.increment();
+  }
+
+  void cancelled() {
+    cancellations.increment();
+  }
+
+  @Override
+  public long getRunsStarted() {
+    return runsStarted.sum();
+  }
+
+  @Override
+  public long getRunsInFlight() {
+    // completions are read first, so that a run that completes concurrently is not counted twice
+    final long completed = runsCompleted.sum();
+    return Math.max(runsStarted.sum() - completed, 0);
+  }
+
+  @Override
+  public long getAsyncInFlight() {
+    final long ended = asyncEnded.sum();
+    return Math.max(asyncStarted.sum() - ended, 0);
+  }
+
+  @Override
+  public long getAsyncHops() {
+    return asyncHops.sum();
+  }
+
+  @Override
+  public synchronized double getAsyncHopRate() {
+    final long now = System.nanoTime();
+    final long hops = asyncHops.sum();
+    final double rate = (hops - lastHops) * 1e9 / Math.max(now - lastRateAt, 1);
+    lastHops = hops;
+    lastRateAt = now;
+    return rate;
+  }
+
+  @Override
+  public long getCancellations() {
+    return cancellations.sum();
+  }
+
+  @Override
+  public long getUnhandledFailures() {
+    return unhandledFailures.sum();
+  }
+}
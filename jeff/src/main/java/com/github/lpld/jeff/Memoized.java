@@ -0,0 +1,99 @@
+package com.github.lpld.jeff;
+
+import com.github.lpld.jeff.data.Or;
+
+import java.time.Duration;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Implementation of {@link IO#memoize()} and {@link IO#cached}.
+ *
+ * The state is either empty, an evaluation in flight (a {@link Completion} shared by all the
+ * callers that arrive while the source IO is running) or a cached result together with its
+ * expiration time.
+ */
+@RequiredArgsConstructor
+final class Memoized<T> {
+
+  static final long NEVER_EXPIRES = Long.MAX_VALUE;
+
+  private static final Duration MAX_TTL = Duration.ofNanos(NEVER_EXPIRES);
+
+  private final IO<T> source;
+  private final long ttlNanos;
+  private final boolean cacheFailures;
+
+  private final AtomicReference<Object> state = new AtomicReference<>();
+
+  /**
+   * Convert {@code ttl} to nanoseconds, saturating to {@link #NEVER_EXPIRES} instead of
+   * overflowing.
+   */
+  static long ttlNanos(Duration ttl) {
+    return ttl.compareTo(MAX_TTL) >= 0 ? NEVER_EXPIRES : ttl.toNanos();
+  }
+
+  IO<T> get() {
+    return new OnExecutor<>(this::current);
+  }
+
+  /**
+   * The first caller evaluates the source in a nested run on its own thread and executor. The
+   * callers that have to wait for the evaluation are resumed on their own executors rather than
+   * on the thread that completes it.
+   */
+  @SuppressWarnings("unchecked")
+  private IO<T> current(Executor executor) {
+    while (true) {
+      final Object st = state.get();
+
+      if (st instanceof Cached && !((Cached<T>) st).isExpired()) {
+        return ((Cached<T>) st).io;
+      }
+
+      if (st instanceof Completion) {
+        return ((Completion<T>) st).get(executor);
+      }
+
+      final Completion<T> evaluation = new Completion<>();
+      if (state.compareAndSet(st, evaluation)) {
+        IORun.start(source, UncancellableIOTask.INSTANCE, executor, result -> {
+          if (result.isRight() || cacheFailures) {
+            state.set(new Cached<>(result, expiresAt()));
+          } else {
+            state.compareAndSet(evaluation, null);
+          }
+          evaluation.complete(result);
+        });
+        return evaluation.get(executor);
+      }
+    }
+  }
+
+  private long expiresAt() {
+    if (ttlNanos == NEVER_EXPIRES) {
+      return NEVER_EXPIRES;
+    }
+    final long expiresAt = System.nanoTime() + ttlNanos;
+    // the value of nanoTime can be arbitrary, so we only need to avoid the special value:
+    return expiresAt == NEVER_EXPIRES ? expiresAt - 1 : expiresAt;
+  }
+
+  private static final class Cached<T> {
+
+    final IO<T> io;
+    final long expiresAt;
+
+    Cached(Or<Throwable, T> result, long expiresAt) {
+      this.io = result.isRight() ? IO.pure(result.getRight()) : IO.fail(result::getLeft);
+      this.expiresAt = expiresAt;
+    }
+
+    boolean isExpired() {
+      return expiresAt != NEVER_EXPIRES && System.nanoTime() - expiresAt >= 0;
+    }
+  }
+}
@@ -0,0 +1,144 @@
+package com.github.lpld.jeff;
+
+import com.github.lpld.jeff.functions.Fn;
+import com.github.lpld.jeff.functions.Xn0;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rewrite pass behind {@link IO#optimize()}. It folds patterns that the interpreter would
+ * otherwise evaluate step by step:
+ *
+ * <pre>
+ *  pure(x).flatMap(f)       =>  suspend(() -> f(x))
+ *  pure(x).chain(io)        =>  io
+ *  pure(x).map(f)           =>  delay(() -> f(x))
+ *  delay(a).map(f)          =>  delay(() -> f(a()))
+ *  io.chain(pure(v))        =>  io.map(t -> v)   (so that chains of units fuse into one map)
+ *  io.then(pure(v))         =>  io
+ * </pre>
+ *
+ * Functions and thunks are opaque, so only the IOs that are reachable without calling them are
+ * rewritten: the spine of sources of {@code flatMap}, {@code map} and recovery nodes, and the IOs
+ * passed to {@code chain} and {@code then}. Nothing is evaluated ahead of time. The spine is
+ * walked iteratively; nested IOs are rewritten up to {@link #MAX_NESTING} levels deep, so the pass
+ * itself is stack-safe.
+ */
+final class Optimizer {
+
+  private static final int MAX_NESTING = 16;
+
+  private Optimizer() {
+  }
+
+  static <T> IO<T> optimize(IO<T> io) {
+    return optimize(io, 0);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> IO<T> optimize(IO<T> io, int nesting) {
+    if (nesting > MAX_NESTING) {
+      return io;
+    }
+
+    // collect the spine top-down...
+    final List<IO<?>> spine = new ArrayList<>();
+    IO<?> node = io;
+    while (node instanceof Bind || node instanceof Map || node instanceof Handler) {
+      spine.add(node);
+      node = node instanceof Bind ? ((Bind<?, ?>) node).source
+             : node instanceof Map ? ((Map<?, ?>) node).source
+             : ((Handler<?>) node).io;
+    }
+
+    // ...and rebuild it bottom-up
+    IO<?> result = node;
+    for (int i = spine.size() - 1; i >= 0; i--) {
+      result = rewrite(spine.get(i), result, nesting);
+    }
+    return (IO<T>) result;
+  }
+
+  /**
+   * Rewrite {@code node}, whose source has already been rewritten into {@code source}.
+   */
+  @SuppressWarnings("unchecked")
+  private static IO<?> rewrite(IO<?> node, IO<?> source, int nesting) {
+    if (node instanceof Bind) {
+      return rewriteBind((Bind<Object, Object>) node, (IO<Object>) source, nesting);
+    }
+    if (node instanceof Map) {
+      return rewriteMap((Map<Object, Object>) node, (IO<Object>) source);
+    }
+
+    if (source == ((Handler<?>) node).io) {
+      return node;
+    }
+    if (node instanceof Attempt) {
+      return new Attempt<>(source);
+    }
+    if (node instanceof RecoverValue) {
+      return new RecoverValue<>((IO<Object>) source, ((RecoverValue<Object>) node).recover);
+    }
+    return new Recover<>((IO<Object>) source, ((Recover<Object>) node).recover);
+  }
+
+  private static IO<?> rewriteBind(Bind<Object, Object> bind, IO<Object> source, int nesting) {
+    final Fn<Object, IO<Object>> f = bind.f;
+
+    if (f instanceof Then && ((Then<?>) f).io instanceof Pure) {
+      return source;
+    }
+
+    if (source instanceof Pure) {
+      final Object value = ((Pure<Object>) source).pure;
+      if (f instanceof Const) {
+        return optimize(((Const<Object, Object>) f).io, nesting + 1);
+      }
+      return IO.suspend(() -> f.ap(value));
+    }
+
+    if (f instanceof Const) {
+      final IO<Object> next = optimize(((Const<Object, Object>) f).io, nesting + 1);
+      if (next instanceof Pure) {
+        final Object value = ((Pure<Object>) next).pure;
+        return rewriteMap(new Map<>(source, t -> value, 0), source);
+      }
+      return next == ((Const<Object, Object>) f).io && source == bind.source
+             ? bind
+             : source.chain(next);
+    }
+
+    return source == bind.source ? bind : new Bind<>(source, f);
+  }
+
+  private static IO<?> rewriteMap(Map<Object, Object> map, IO<Object> source) {
+    final Fn<Object, Object> f = map.f;
+
+    if (source instanceof Pure) {
+      final Object value = ((Pure<Object>) source).pure;
+      return new FusedDelay<>(() -> f.ap(value));
+    }
+    if (source instanceof Delay && !(source instanceof FusedDelay)) {
+      final Delay<Object> delay = (Delay<Object>) source;
+      return new FusedDelay<>(() -> f.ap(delay.thunk.ap()));
+    }
+    if (source instanceof Map && map.depth == 0) {
+      // fuse with the map below, which may have been produced by this pass
+      return source.map(f);
+    }
+    return source == map.source ? map : new Map<>(source, f, map.depth);
+  }
+
+  /**
+   * Delay that has been produced by fusing a map into it. It is not fused any further, so that
+   * the nesting of functions stays bounded by {@link Map#MAX_FUSION_DEPTH}.
+   */
+  private static final class FusedDelay<T> extends Delay<T> {
+
+    FusedDelay(Xn0<T> thunk) {
+      super(thunk);
+    }
+  }
+}
@@ -0,0 +1,113 @@
+package com.github.lpld.jeff;
+
+import com.github.lpld.jeff.data.Or;
+import com.github.lpld.jeff.data.Unit;
+import com.github.lpld.jeff.functions.Fn;
+import com.github.lpld.jeff.functions.Run1;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Implementation of {@link IOFunctions#parTraverse}.
+ *
+ * A fixed number of workers is started, each of them sequentially takes the next unprocessed
+ * item, evaluates it and stores the result in the slot reserved for that item. The traversal
+ * completes when the countdown of unprocessed items reaches zero.
+ */
+final class ParTraverse<A, B> {
+
+  private final Executor executor;
+  private final Object[] items;
+  private final Object[] results;
+  private final Fn<A, IO<B>> f;
+  private final Run1<Or<Throwable, List<B>>> callback;
+  private final CancellableIO[] workers;
+
+  private final AtomicInteger nextItem = new AtomicInteger();
+  private final AtomicInteger remaining;
+  private final AtomicBoolean done = new AtomicBoolean();
+
+  ParTraverse(Executor executor, int maxConcurrency, List<A> items, Fn<A, IO<B>> f,
+              Run1<Or<Throwable, List<B>>> callback) {
+    this.executor = executor;
+    this.items = items.toArray();
+    this.results = new Object[this.items.length];
+    this.f = f;
+    this.callback = callback;
+    this.workers = new CancellableIO[Math.min(maxConcurrency, this.items.length)];
+    this.remaining = new AtomicInteger(this.items.length);
+  }
+
+  /**
+   * Start the workers and return the cancellation action.
+   */
+  IO<Unit> start() {
+    if (items.length == 0) {
+      complete();
+      return IO.unit;
+    }
+
+    for (int i = 0; i < workers.length; i++) {
+      workers[i] = CancellableIO.create();
+    }
+
+    for (CancellableIO worker : workers) {
+      IORun.start(IO.forked(executor).chain(work()), worker, this::onWorkerFinished);
+    }
+
+    return IO.delay(this::cancel);
+  }
+
+  private IO<Unit> work() {
+    return IO.suspend(this::processNext);
+  }
+
+  @SuppressWarnings("unchecked")
+  private IO<Unit> processNext() {
+    final int idx = nextItem.getAndIncrement();
+
+    if (idx >= items.length || done.get()) {
+      return IO.unit;
+    }
+
+    return f.ap((A) items[idx]).flatMap(result -> {
+      results[idx] = result;
+
+      if (remaining.decrementAndGet() == 0) {
+        complete();
+        return IO.unit;
+      }
+      return work();
+    });
+  }
+
+  private void onWorkerFinished(Or<Throwable, Unit> result) {
+    if (result.isLeft() && done.compareAndSet(false, true)) {
+      cancelWorkers();
+      callback.run(Or.Left(result.getLeft()));
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private void complete() {
+    if (done.compareAndSet(false, true)) {
+      callback.run(Or.Right((List<B>) Arrays.asList(results)));
+    }
+  }
+
+  private void cancel() {
+    if (done.compareAndSet(false, true)) {
+      cancelWorkers();
+    }
+  }
+
+  private void cancelWorkers() {
+    for (CancellableIO worker : workers) {
+      worker.cancel();
+    }
+  }
+}
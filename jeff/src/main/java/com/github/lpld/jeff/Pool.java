@@ -0,0 +1,350 @@
+package com.github.lpld.jeff;
+
+import com.github.lpld.jeff.data.Or;
+import com.github.lpld.jeff.data.Unit;
+import com.github.lpld.jeff.functions.Fn;
+import com.github.lpld.jeff.functions.Run1;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Bounded pool of reusable resources.
+ *
+ * Resources are created lazily with the {@code create} IO, up to {@code maxSize} of them. When all
+ * of them are in use, acquirers wait asynchronously (no thread is blocked) and get resources in
+ * FIFO order as they are released. A resource that stays idle longer than {@code maxIdle} is
+ * destroyed, both lazily on acquisition and by a periodic sweep.
+ *
+ * {@link #use} is the preferred way of using the pool: the resource is released when the IO
+ * completes, fails or is cancelled.
+ */
+public final class Pool<R> {
+
+  private final IO<R> create;
+  private final Fn<R, IO<Unit>> destroy;
+  private final int maxSize;
+  private final long maxIdleNanos;
+
+  // guarded by this:
+  private final ArrayDeque<Idle<R>> idle = new ArrayDeque<>(); // most recently released first
+  private final ArrayDeque<Waiter<R>> waiters = new ArrayDeque<>();
+  private int allocated;
+  private boolean sweepScheduled;
+  private boolean closed;
+
+  private Pool(IO<R> create, Fn<R, IO<Unit>> destroy, int maxSize, long maxIdleNanos) {
+    if (maxSize <= 0) {
+      throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+    }
+    this.create = create;
+    this.destroy = destroy;
+    this.maxSize = maxSize;
+    this.maxIdleNanos = maxIdleNanos;
+  }
+
+  /**
+   * Create a pool whose idle resources are never evicted.
+   */
+  public static <R> Pool<R> create(IO<R> create, Fn<R, IO<Unit>> destroy, int maxSize) {
+    return new Pool<>(create, destroy, maxSize, Long.MAX_VALUE);
+  }
+
+  /**
+   * Create a pool whose resources are destroyed after being idle for {@code maxIdle}. A duration
+   * that doesn't fit in a long number of nanoseconds means that they are never evicted.
+   */
+  public static <R> Pool<R> create(IO<R> create, Fn<R, IO<Unit>> destroy, int maxSize,
+                                   Duration maxIdle) {
+    if (maxIdle.isNegative()) {
+      throw new IllegalArgumentException("maxIdle must not be negative: " + maxIdle);
+    }
+    return new Pool<>(create, destroy, maxSize, Memoized.ttlNanos(maxIdle));
+  }
+
+  /**
+   * Take a resource from the pool. It must be returned with {@link #release}. If the acquisition
+   * is cancelled, the resource is returned to the pool automatically.
+   */
+  public IO<R> acquire() {
+    return IO.cancellable(callback -> {
+      final Waiter<R> waiter = new Waiter<>(callback);
+      request(waiter);
+
+      return IO.delay(() -> {
+        if (!cancel(waiter) && waiter.get() == Waiter.GRANTED) {
+          // the resource has been granted, but the continuation is dropped
+          giveBack(waiter.resource);
+        }
+      });
+    });
+  }
+
+  public IO<Unit> release(R resource) {
+    return IO.delay(() -> giveBack(resource));
+  }
+
+  /**
+   * Acquire a resource, use it in {@code f} and release it, regardless of whether the IO returned
+   * by {@code f} succeeds, fails or gets cancelled.
+   */
+  public <T> IO<T> use(Fn<R, IO<T>> f) {
+    return IO.cancellable(callback -> {
+      final CancellableIO task = CancellableIO.create();
+
+      final Waiter<R> waiter = new Waiter<>(acquired -> {
+        if (acquired.isLeft()) {
+          callback.run(Or.Left(acquired.getLeft()));
+        } else {
+          final R resource = acquired.getRight();
+          IORun.start(IO.suspend(() -> f.ap(resource)), task, result -> {
+            giveBack(resource);
+            callback.run(result);
+          });
+        }
+      });
+      request(waiter);
+
+      return IO.delay(() -> {
+        if (!cancel(waiter)) {
+          // the resource has been granted: the run of f will complete with CancellationException
+          // and release it
+          task.cancel();
+        }
+      });
+    });
+  }
+
+  /**
+   * Close the pool: idle resources are destroyed, waiting acquirers fail and resources that are
+   * currently in use are destroyed when they are released.
+   */
+  public IO<Unit> close() {
+    return IO.delay(() -> {
+      final List<R> toDestroy = new ArrayList<>();
+      final List<Waiter<R>> toFail;
+      synchronized (this) {
+        closed = true;
+        for (Idle<R> i : idle) {
+          toDestroy.add(i.resource);
+        }
+        allocated -= idle.size();
+        idle.clear();
+        toFail = new ArrayList<>(waiters);
+        waiters.clear();
+      }
+      toDestroy.forEach(this::destroy);
+      toFail.forEach(w -> w.fail(closedError()));
+    });
+  }
+
+  private void request(Waiter<R> waiter) {
+    final List<R> expired;
+    final boolean isClosed;
+    R resource = null;
+    boolean mustCreate = false;
+
+    synchronized (this) {
+      isClosed = closed;
+      if (isClosed) {
+        expired = Collections.emptyList();
+      } else {
+        expired = evictExpired(System.nanoTime());
+        final Idle<R> i = idle.pollFirst();
+        if (i != null) {
+          resource = i.resource;
+        } else if (allocated < maxSize) {
+          allocated++;
+          mustCreate = true;
+        } else {
+          waiters.addLast(waiter);
+        }
+      }
+    }
+
+    expired.forEach(this::destroy);
+
+    if (resource != null) {
+      grant(waiter, resource);
+    } else if (mustCreate) {
+      createFor(waiter);
+    } else if (isClosed) {
+      waiter.fail(closedError());
+    }
+  }
+
+  private void createFor(Waiter<R> waiter) {
+    IORun.start(create, UncancellableIOTask.INSTANCE, created -> {
+      if (created.isRight()) {
+        grant(waiter, created.getRight());
+      } else {
+        final Waiter<R> next;
+        synchronized (this) {
+          allocated--;
+          next = nextWaiter();
+          if (next != null) {
+            allocated++;
+          }
+        }
+        waiter.fail(created.getLeft());
+        if (next != null) {
+          dispatch(() -> createFor(next));
+        }
+      }
+    });
+  }
+
+  private void grant(Waiter<R> waiter, R resource) {
+    if (!waiter.grant(resource)) {
+      giveBack(resource);
+    }
+  }
+
+  private void giveBack(R resource) {
+    final Waiter<R> next;
+    boolean mustDestroy = false;
+    boolean mustSweep = false;
+
+    synchronized (this) {
+      next = nextWaiter();
+      if (next == null) {
+        if (closed) {
+          allocated--;
+          mustDestroy = true;
+        } else {
+          idle.addFirst(new Idle<>(resource, System.nanoTime()));
+          if (maxIdleNanos != Long.MAX_VALUE && !sweepScheduled) {
+            sweepScheduled = mustSweep = true;
+          }
+        }
+      }
+    }
+
+    if (next != null) {
+      // the waiter is resumed on the compute scheduler, so that the releasing side doesn't
+      // evaluate its continuation
+      dispatch(() -> grant(next, resource));
+    } else if (mustDestroy) {
+      destroy(resource);
+    } else if (mustSweep) {
+      scheduleSweep(maxIdleNanos);
+    }
+  }
+
+  private boolean cancel(Waiter<R> waiter) {
+    if (waiter.cancel()) {
+      synchronized (this) {
+        waiters.remove(waiter);
+      }
+      return true;
+    }
+    return false;
+  }
+
+  private void sweep() {
+    final List<R> expired;
+    long nextSweep = -1;
+
+    synchronized (this) {
+      final long now = System.nanoTime();
+      expired = evictExpired(now);
+      final Idle<R> oldest = idle.peekLast();
+      if (oldest == null) {
+        sweepScheduled = false;
+      } else {
+        nextSweep = oldest.releasedAt + maxIdleNanos - now;
+      }
+    }
+
+    expired.forEach(this::destroy);
+    if (nextSweep >= 0) {
+      scheduleSweep(nextSweep);
+    }
+  }
+
+  private void scheduleSweep(long delayNanos) {
+    IORuntime.global().timer().schedule(this::sweep, delayNanos);
+  }
+
+  // must be called under the lock
+  private List<R> evictExpired(long now) {
+    List<R> expired = Collections.emptyList();
+    Idle<R> oldest;
+    while ((oldest = idle.peekLast()) != null && now - oldest.releasedAt >= maxIdleNanos) {
+      if (expired.isEmpty()) {
+        expired = new ArrayList<>();
+      }
+      expired.add(idle.pollLast().resource);
+      allocated--;
+    }
+    return expired;
+  }
+
+  // must be called under the lock
+  private Waiter<R> nextWaiter() {
+    Waiter<R> next;
+    do {
+      next = waiters.pollFirst();
+    } while (next != null && next.get() != Waiter.WAITING);
+    return next;
+  }
+
+  private void destroy(R resource) {
+    // errors of destroy are ignored
+    IORun.start(IO.suspend(() -> destroy.ap(resource)), UncancellableIOTask.INSTANCE, ignore -> {
+    });
+  }
+
+  private static void dispatch(Runnable action) {
+    IORuntime.global().compute().execute(action);
+  }
+
+  private static IllegalStateException closedError() {
+    return new IllegalStateException("Pool is closed");
+  }
+
+  @RequiredArgsConstructor
+  private static final class Idle<R> {
+
+    final R resource;
+    final long releasedAt;
+  }
+
+  @RequiredArgsConstructor
+  private static final class Waiter<R> extends AtomicInteger {
+
+    static final int WAITING = 0;
+    static final int GRANTED = 1;
+    static final int FAILED = 2;
+    static final int CANCELLED = 3;
+
+    private final Run1<Or<Throwable, R>> callback;
+    private volatile R resource;
+
+    boolean grant(R resource) {
+      this.resource = resource;
+      if (compareAndSet(WAITING, GRANTED)) {
+        callback.run(Or.Right(resource));
+        return true;
+      }
+      this.resource = null;
+      return false;
+    }
+
+    void fail(Throwable err) {
+      if (compareAndSet(WAITING, FAILED)) {
+        callback.run(Or.Left(err));
+      }
+    }
+
+    boolean cancel() {
+      return compareAndSet(WAITING, CANCELLED);
+    }
+  }
+}
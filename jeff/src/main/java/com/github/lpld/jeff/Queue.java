@@ -0,0 +1,157 @@
+package com.github.lpld.jeff;
+
+import com.github.lpld.jeff.data.Or;
+import com.github.lpld.jeff.data.Unit;
+
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded multi-producer multi-consumer queue for passing elements between concurrently running
+ * IOs. {@link #offer} waits asynchronously while the queue is full, {@link #take} waits while it is
+ * empty (no threads are blocked in both cases).
+ *
+ * Elements are stored in an array ring buffer, where each cell has a sequence number that tells
+ * whether it's ready to be written or read (Dmitry Vyukov's bounded MPMC queue), so no nodes are
+ * allocated per element. A position is claimed with a CAS only when its cell is ready, so a
+ * producer or consumer never owns a cell that it can't use right away. Free cells and ready
+ * elements are counted with two semaphores, so a producer or consumer that got a permit is
+ * guaranteed to get a cell eventually. It can still find the cell at its position not ready yet,
+ * if the other side has claimed it and has been preempted before publishing it: after a few
+ * retries it checks again asynchronously, after the tasks that are waiting for the executor it's
+ * running on, rather than occupying the thread. If it's cancelled while waiting for the retry, the
+ * permit is given back.
+ */
+public final class Queue<T> {
+
+  // attempts to claim a cell before re-checking asynchronously
+  private static final int MAX_ATTEMPTS = 64;
+
+  private final int mask;
+  private final AtomicReferenceArray<T> buffer;
+  private final AtomicLongArray sequence;
+  private final AtomicLong enqueuePos = new AtomicLong();
+  private final AtomicLong dequeuePos = new AtomicLong();
+
+  private final Semaphore free;
+  private final Semaphore ready = Semaphore.create(0);
+
+  private Queue(int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("capacity must be positive: " + capacity);
+    }
+    final int size = Integer.highestOneBit(capacity) == capacity ? capacity
+                                                                 : Integer.highestOneBit(capacity) << 1;
+    this.mask = size - 1;
+    this.buffer = new AtomicReferenceArray<>(size);
+    this.sequence = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      sequence.set(i, i);
+    }
+    this.free = Semaphore.create(capacity);
+  }
+
+  public static <T> Queue<T> bounded(int capacity) {
+    return new Queue<>(capacity);
+  }
+
+  /**
+   * Add an element to the queue, waiting asynchronously until there's free space.
+   */
+  public IO<Unit> offer(T elem) {
+    return free.acquire().chain(enqueue(elem));
+  }
+
+  /**
+   * Add an element if there's free space. Returns {@code false} if the queue is full.
+   */
+  public IO<Boolean> tryOffer(T elem) {
+    return IO.suspend(() -> free.tryAcquirePermit() ? enqueue(elem).map(u -> true) : IO.pure(false));
+  }
+
+  /**
+   * Take an element from the queue, waiting asynchronously until there is one.
+   */
+  public IO<T> take() {
+    return ready.acquire().chain(dequeue());
+  }
+
+  public IO<Optional<T>> tryTake() {
+    return IO.suspend(() -> ready.tryAcquirePermit() ? dequeue().map(Optional::of)
+                                                     : IO.pure(Optional.empty()));
+  }
+
+  /**
+   * Infinite stream of elements taken from this queue.
+   */
+  public Stream<T> dequeueStream() {
+    return Stream.eval(take()).repeat();
+  }
+
+  /**
+   * Write an element to a free cell. Must be called holding a permit of {@code free}.
+   */
+  private IO<Unit> enqueue(T elem) {
+    return IO.suspend(() -> {
+      for (int i = 0; i < MAX_ATTEMPTS; i++) {
+        final long pos = enqueuePos.get();
+        final int idx = (int) pos & mask;
+
+        // the cell is free once the consumer of the previous round has released it
+        if (sequence.get(idx) == pos && enqueuePos.compareAndSet(pos, pos + 1)) {
+          buffer.lazySet(idx, elem);
+          sequence.set(idx, pos + 1);
+          ready.releasePermit();
+          return IO.unit;
+        }
+      }
+      return retryLater(free).chain(enqueue(elem));
+    });
+  }
+
+  /**
+   * Take an element from a ready cell. Must be called holding a permit of {@code ready}.
+   */
+  private IO<T> dequeue() {
+    return IO.suspend(() -> {
+      for (int i = 0; i < MAX_ATTEMPTS; i++) {
+        final long pos = dequeuePos.get();
+        final int idx = (int) pos & mask;
+
+        // the cell is ready once the producer has published the element
+        if (sequence.get(idx) == pos + 1 && dequeuePos.compareAndSet(pos, pos + 1)) {
+          final T elem = buffer.get(idx);
+          buffer.lazySet(idx, null);
+          sequence.set(idx, pos + mask + 1);
+          free.releasePermit();
+          return IO.pure(elem);
+        }
+      }
+      return retryLater(ready).chain(dequeue());
+    });
+  }
+
+  /**
+   * Async boundary before the next attempt to claim a cell, made by an IO that holds a permit of
+   * {@code permits}. It resumes on the executor the IO is running on (or on the global compute
+   * pool if there's none). If the IO is cancelled here, the permit is released.
+   */
+  static IO<Unit> retryLater(Semaphore permits) {
+    return new OnExecutor<>(caller -> {
+      final Executor target = caller == null ? IORuntime.global().compute() : caller;
+
+      return new Async<Unit>(onFinish -> {
+        target.execute(() -> onFinish.run(Or.Right(Unit.unit)));
+        return IO.delay(permits::releasePermit);
+      }) {
+        @Override
+        Executor resumeOn(Executor current) {
+          return target;
+        }
+      };
+    });
+  }
+}
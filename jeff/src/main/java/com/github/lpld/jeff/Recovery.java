@@ -1,8 +1,10 @@
 package com.github.lpld.jeff;
 
 
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
@@ -15,16 +17,53 @@ import lombok.RequiredArgsConstructor;
  */
 public class Recovery {
 
+  /**
+   * Combine the rules into a recovery function: the first rule that matches the error is applied.
+   * Rules are resolved once per concrete error class, so evaluating the function only takes a
+   * lookup and the checks of additional predicates (if any).
+   */
   @SafeVarargs
   public static <T> Function<Throwable, Optional<T>> rules(RecoveryRule<T>... rules) {
-    return throwable -> Arrays.stream(rules)
-        .filter(rule -> rule.predicate.test(throwable))
-        .findFirst()
-        .map(rule -> rule.onError.get());
+    return new CompiledRules<>(rules.clone());
   }
 
   public static <E extends Throwable> ThrowablePredicate<E> on(Class<E> errorClass) {
-    return new ThrowablePredicate<>(errorClass, (e) -> true);
+    return new ThrowablePredicate<>(errorClass, (e) -> true, true);
+  }
+
+  @RequiredArgsConstructor
+  private static final class CompiledRules<T> implements Function<Throwable, Optional<T>> {
+
+    private final RecoveryRule<T>[] rules;
+    // rules whose class matches the given error class, in the original order
+    private final ConcurrentHashMap<Class<?>, RecoveryRule<T>[]> byClass = new ConcurrentHashMap<>();
+
+    @Override
+    public Optional<T> apply(Throwable throwable) {
+      final Class<?> errorClass = throwable.getClass();
+      RecoveryRule<T>[] candidates = byClass.get(errorClass);
+      if (candidates == null) {
+        candidates = byClass.computeIfAbsent(errorClass, this::resolve);
+      }
+
+      for (RecoveryRule<T> rule : candidates) {
+        if (rule.predicate.unconditional || rule.predicate.test(throwable)) {
+          return Optional.ofNullable(rule.onError.get());
+        }
+      }
+      return Optional.empty();
+    }
+
+    @SuppressWarnings("unchecked")
+    private RecoveryRule<T>[] resolve(Class<?> errorClass) {
+      final List<RecoveryRule<T>> candidates = new ArrayList<>();
+      for (RecoveryRule<T> rule : rules) {
+        if (rule.predicate.clazz.isAssignableFrom(errorClass)) {
+          candidates.add(rule);
+        }
+      }
+      return candidates.toArray(new RecoveryRule[0]);
+    }
   }
 
   @RequiredArgsConstructor
@@ -32,9 +71,11 @@ public class Recovery {
 
     private final Class<E> clazz;
     private final Predicate<E> predicate;
+    // true if only the class of the error matters
+    private final boolean unconditional;
 
     public ThrowablePredicate<E> and(Predicate<E> predicate) {
-      return new ThrowablePredicate<>(clazz, this.predicate.and(predicate));
+      return new ThrowablePredicate<>(clazz, this.predicate.and(predicate), false);
     }
 
     public <T> RecoveryRule<T> doReturn(Supplier<T> supplier) {
@@ -45,9 +86,10 @@ public class Recovery {
       return doReturn(() -> value);
     }
 
+    // the class must have been checked already
     @SuppressWarnings("unchecked")
-    boolean test(Throwable throwable) {
-      return clazz.isInstance(throwable) && predicate.test((E) throwable);
+    private boolean test(Throwable throwable) {
+      return predicate.test((E) throwable);
     }
   }
 
@@ -0,0 +1,68 @@
+package com.github.lpld.jeff;
+
+import com.github.lpld.jeff.data.Pr;
+import com.github.lpld.jeff.data.Unit;
+import com.github.lpld.jeff.functions.Fn;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Mutable reference that can be safely shared between concurrently running IOs. All the
+ * modifications are atomic (implemented with CAS loops), so functions passed to them may be
+ * called more than once and must not have side effects.
+ */
+public final class Ref<T> {
+
+  private final AtomicReference<T> value;
+
+  private Ref(T initial) {
+    this.value = new AtomicReference<>(initial);
+  }
+
+  public static <T> Ref<T> of(T initial) {
+    return new Ref<>(initial);
+  }
+
+  public IO<T> get() {
+    return IO.delay(value::get);
+  }
+
+  public IO<Unit> set(T newValue) {
+    return IO.delay(() -> value.set(newValue));
+  }
+
+  public IO<T> getAndSet(T newValue) {
+    return IO.delay(() -> value.getAndSet(newValue));
+  }
+
+  public IO<Boolean> compareAndSet(T expected, T newValue) {
+    return IO.delay(() -> value.compareAndSet(expected, newValue));
+  }
+
+  public IO<Unit> update(Fn<T, T> f) {
+    return modify(t -> Pr.of(f.ap(t), Unit.unit));
+  }
+
+  public IO<T> updateAndGet(Fn<T, T> f) {
+    return modify(t -> {
+      final T updated = f.ap(t);
+      return Pr.of(updated, updated);
+    });
+  }
+
+  /**
+   * Atomically replace the current value with the first element of {@code f}'s result and return
+   * the second one.
+   */
+  public <U> IO<U> modify(Fn<T, Pr<T, U>> f) {
+    return IO.delay(() -> {
+      while (true) {
+        final T current = value.get();
+        final Pr<T, U> result = f.ap(current);
+        if (value.compareAndSet(current, result._1)) {
+          return result._2;
+        }
+      }
+    });
+  }
+}
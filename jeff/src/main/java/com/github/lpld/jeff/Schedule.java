@@ -0,0 +1,135 @@
+package com.github.lpld.jeff;
+
+import com.github.lpld.jeff.data.Unit;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Policy that decides whether an IO should be re-run and how long to wait before that. Used by
+ * {@link IO#retry} and {@link IO#repeat}.
+ *
+ * Schedules are immutable and can be combined, e.g.:
+ *
+ * <pre>{@code
+ * Schedule.exponential(Duration.ofMillis(100))
+ *     .maxDelay(Duration.ofSeconds(5))
+ *     .jittered()
+ *     .and(Schedule.recurs(10))
+ * }</pre>
+ */
+public final class Schedule {
+
+  static final long STOP = -1;
+
+  private final Decision decision;
+
+  private Schedule(Decision decision) {
+    this.decision = decision;
+  }
+
+  /**
+   * At most {@code times} re-runs without delays.
+   */
+  public static Schedule recurs(int times) {
+    return new Schedule((attempt, elapsed) -> attempt <= times ? 0 : STOP);
+  }
+
+  /**
+   * Unlimited re-runs, each one {@code delay} after the previous run completes.
+   */
+  public static Schedule spaced(Duration delay) {
+    final long nanos = positiveNanos("delay", delay);
+    return new Schedule((attempt, elapsed) -> nanos);
+  }
+
+  /**
+   * Unlimited re-runs with delays {@code base}, {@code 2 * base}, {@code 4 * base}, etc.
+   */
+  public static Schedule exponential(Duration base) {
+    final long nanos = positiveNanos("base", base);
+    return new Schedule((attempt, elapsed) -> {
+      final int shift = Math.min(attempt - 1, Long.numberOfLeadingZeros(nanos) - 1);
+      return nanos << Math.max(shift, 0);
+    });
+  }
+
+  /**
+   * Unlimited re-runs that start at multiples of {@code period} (counting from the first run). If
+   * a run takes longer than the period, the next one starts at the next multiple.
+   */
+  public static Schedule fixedRate(Duration period) {
+    final long nanos = positiveNanos("period", period);
+    return new Schedule((attempt, elapsed) -> nanos - elapsed % nanos);
+  }
+
+  /**
+   * Continue while both schedules continue, using the longer of the two delays.
+   */
+  public Schedule and(Schedule other) {
+    return new Schedule((attempt, elapsed) -> {
+      final long d1 = delay(attempt, elapsed);
+      final long d2 = d1 < 0 ? STOP : other.delay(attempt, elapsed);
+      return d2 < 0 ? STOP : Math.max(d1, d2);
+    });
+  }
+
+  /**
+   * Randomize the delays of this schedule: each delay is chosen uniformly between zero and the
+   * original one ("full jitter"). This spreads the re-runs of many clients that failed at the same
+   * moment.
+   */
+  public Schedule jittered() {
+    return new Schedule((attempt, elapsed) -> {
+      final long d = delay(attempt, elapsed);
+      return d <= 0 ? d : ThreadLocalRandom.current().nextLong(d + 1);
+    });
+  }
+
+  /**
+   * Limit each delay of this schedule to {@code max}.
+   */
+  public Schedule maxDelay(Duration max) {
+    final long nanos = positiveNanos("max", max);
+    return new Schedule((attempt, elapsed) -> {
+      final long d = delay(attempt, elapsed);
+      return d < 0 ? STOP : Math.min(d, nanos);
+    });
+  }
+
+  /**
+   * Stop this schedule once {@code total} time has passed since the first run.
+   */
+  public Schedule upTo(Duration total) {
+    final long nanos = positiveNanos("total", total);
+    return new Schedule((attempt, elapsed) -> elapsed < nanos ? delay(attempt, elapsed) : STOP);
+  }
+
+  /**
+   * Delay in nanoseconds before the re-run number {@code attempt} (starting from 1), or a negative
+   * number if there should be no more re-runs.
+   */
+  long delay(int attempt, long elapsedNanos) {
+    return decision.delay(attempt, elapsedNanos);
+  }
+
+  /**
+   * Convert a duration that must be positive to nanoseconds, saturating instead of overflowing.
+   */
+  private static long positiveNanos(String name, Duration duration) {
+    if (duration.isNegative() || duration.isZero()) {
+      throw new IllegalArgumentException(name + " must be positive: " + duration);
+    }
+    return Memoized.ttlNanos(duration);
+  }
+
+  static IO<Unit> pause(long nanos) {
+    return nanos == 0 ? IO.unit : IO.sleepNanos(nanos);
+  }
+
+  @FunctionalInterface
+  private interface Decision {
+
+    long delay(int attempt, long elapsedNanos);
+  }
+}
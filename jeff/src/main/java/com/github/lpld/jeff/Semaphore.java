@@ -0,0 +1,193 @@
+package com.github.lpld.jeff;
+
+import com.github.lpld.jeff.data.Or;
+import com.github.lpld.jeff.data.Unit;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.AllArgsConstructor;
+
+/**
+ * Lock-free semaphore whose waiters are parked asynchronously instead of blocking threads.
+ *
+ * The counter holds the number of available permits minus the number of waiters, so a negative
+ * value means that there are waiters. A waiter is counted first and added to the queue after
+ * that, so a release that finds waiters in the counter doesn't wait for them to appear in the
+ * queue: it records a hand-off and grants it to a queued waiter if there is one. A waiter that
+ * has just been queued grants the pending hand-offs itself, so none of them is missed. A cancelled
+ * waiter stays in the queue (and in the counter) until a hand-off reaches it, and then the permit
+ * is released again.
+ */
+public final class Semaphore {
+
+  private final AtomicLong counter;
+  private final ConcurrentLinkedQueue<Waiter> waiters = new ConcurrentLinkedQueue<>();
+  // permits released to waiters that have been counted, but not granted yet
+  private final AtomicLong handOffs = new AtomicLong();
+
+  private Semaphore(long permits) {
+    if (permits < 0) {
+      throw new IllegalArgumentException("permits must not be negative: " + permits);
+    }
+    this.counter = new AtomicLong(permits);
+  }
+
+  public static Semaphore create(long permits) {
+    return new Semaphore(permits);
+  }
+
+  /**
+   * Number of available permits (zero if there are waiters).
+   */
+  public IO<Long> available() {
+    return IO.delay(() -> Math.max(counter.get(), 0));
+  }
+
+  /**
+   * Acquire a permit, waiting asynchronously if there are none. If the acquisition is cancelled
+   * after the permit has been granted, the permit is released.
+   */
+  public IO<Unit> acquire() {
+    return IO.cancellable(callback -> {
+      final Waiter waiter = new Waiter(() -> callback.run(Or.Right(Unit.unit)));
+      acquire(waiter);
+
+      return IO.delay(() -> {
+        if (!waiter.cancel()) {
+          // granted, but the continuation is dropped
+          releasePermit();
+        }
+      });
+    });
+  }
+
+  /**
+   * Acquire a permit if it's available without waiting.
+   */
+  public IO<Boolean> tryAcquire() {
+    return IO.delay(this::tryAcquirePermit);
+  }
+
+  public IO<Unit> release() {
+    return IO.delay(this::releasePermit);
+  }
+
+  /**
+   * Run {@code io} holding a permit. The permit is released when {@code io} completes, fails or
+   * gets cancelled.
+   */
+  public <T> IO<T> withPermit(IO<T> io) {
+    return IO.cancellable(callback -> {
+      final CancellableIO task = CancellableIO.create();
+      final Waiter waiter = new Waiter(() -> IORun.start(io, task, result -> {
+        releasePermit();
+        callback.run(result);
+      }));
+      acquire(waiter);
+
+      return IO.delay(() -> {
+        if (!waiter.cancel()) {
+          // the permit has been granted: the run of io will complete with CancellationException
+          // and release it
+          task.cancel();
+        }
+      });
+    });
+  }
+
+  private void acquire(Waiter waiter) {
+    if (counter.getAndDecrement() > 0) {
+      waiter.grant().run();
+    } else {
+      waiters.offer(waiter);
+      grantHandOffs();
+    }
+  }
+
+  boolean tryAcquirePermit() {
+    long current;
+    do {
+      current = counter.get();
+      if (current <= 0) {
+        return false;
+      }
+    } while (!counter.compareAndSet(current, current - 1));
+    return true;
+  }
+
+  void releasePermit() {
+    if (counter.getAndIncrement() < 0) {
+      // there is a waiter, but it may not have been added to the queue yet
+      handOffs.incrementAndGet();
+      grantHandOffs();
+    }
+  }
+
+  /**
+   * Grant the pending hand-offs to the queued waiters. Both sides call it after publishing their
+   * part (a hand-off or a queued waiter), so at least one of them sees both.
+   */
+  private void grantHandOffs() {
+    while (true) {
+      final long pending = handOffs.get();
+      if (pending == 0 || waiters.isEmpty()) {
+        return;
+      }
+      if (!handOffs.compareAndSet(pending, pending - 1)) {
+        continue;
+      }
+
+      final Waiter waiter = waiters.poll();
+      if (waiter == null) {
+        // somebody else has taken the waiter, give the hand-off back and check again
+        handOffs.incrementAndGet();
+        continue;
+      }
+
+      final Runnable onGranted = waiter.grant();
+      if (onGranted != null) {
+        // the waiter is resumed on the compute scheduler, so that the releasing side doesn't
+        // evaluate its continuation
+        IORuntime.global().compute().execute(onGranted);
+      } else if (counter.getAndIncrement() < 0) {
+        // the waiter has been cancelled, but it was still counted, so the permit is released
+        // again (and if there are other waiters, it's handed off to the next one)
+        handOffs.incrementAndGet();
+      }
+    }
+  }
+
+  @AllArgsConstructor
+  private static final class Waiter extends AtomicInteger {
+
+    private static final int WAITING = 0;
+    private static final int GRANTED = 1;
+    private static final int CANCELLED = 2;
+
+    private Runnable onGranted;
+
+    /**
+     * Returns the action that must be run to resume the waiter, or {@code null} if it has been
+     * cancelled.
+     */
+    Runnable grant() {
+      if (compareAndSet(WAITING, GRANTED)) {
+        final Runnable action = onGranted;
+        onGranted = null;
+        return action;
+      }
+      return null;
+    }
+
+    boolean cancel() {
+      if (compareAndSet(WAITING, CANCELLED)) {
+        // a cancelled waiter can stay in the queue for a while, so it shouldn't hold the callback
+        onGranted = null;
+        return true;
+      }
+      return false;
+    }
+  }
+}
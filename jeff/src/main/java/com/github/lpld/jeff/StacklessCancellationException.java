@@ -0,0 +1,28 @@
+package com.github.lpld.jeff;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * {@link CancellationException} without a stack trace. See {@link ControlThrowable}.
+ */
+public final class StacklessCancellationException extends CancellationException {
+
+  /**
+   * The instance that the runtime fails cancelled IOs with, so that a cancellation doesn't
+   * allocate an exception. Unlike {@link ControlThrowable}, it can't have suppression disabled,
+   * so suppressed exceptions must not be added to it.
+   */
+  static final StacklessCancellationException INSTANCE = new StacklessCancellationException();
+
+  public StacklessCancellationException() {
+  }
+
+  public StacklessCancellationException(String message) {
+    super(message);
+  }
+
+  @Override
+  public synchronized Throwable fillInStackTrace() {
+    return this;
+  }
+}
@@ -0,0 +1,21 @@
+package com.github.lpld.jeff;
+
+import java.util.concurrent.TimeoutException;
+
+/**
+ * {@link TimeoutException} without a stack trace. See {@link ControlThrowable}.
+ */
+public final class StacklessTimeoutException extends TimeoutException {
+
+  public StacklessTimeoutException() {
+  }
+
+  public StacklessTimeoutException(String message) {
+    super(message);
+  }
+
+  @Override
+  public synchronized Throwable fillInStackTrace() {
+    return this;
+  }
+}
@@ -8,6 +8,7 @@ import com.github.lpld.jeff.functions.Fn2;
 import com.github.lpld.jeff.functions.Xn;
 import com.github.lpld.jeff.functions.Xn0;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
@@ -110,6 +111,13 @@ public abstract class Stream<T> {
     return Stream.eval(IO.sleep(scheduler, millis)).repeat();
   }
 
+  /**
+   * Stream that emits an element every {@code millis} milliseconds, using {@link IO#sleep(long)}.
+   */
+  public static Stream<Unit> tick(long millis) {
+    return Stream.eval(IO.sleep(millis)).repeat();
+  }
+
   /**
    * General stream building function.
    *
@@ -255,8 +263,29 @@ public abstract class Stream<T> {
     return Defer(collectLeft(pure(Nil()), (acc, elem) -> pure(SCons(elem, Defer(acc)))));
   }
 
+  /**
+   * Offer each element of this stream to {@code queue}, waiting when the queue is full.
+   */
+  public Stream<Unit> enqueue(Queue<T> queue) {
+    return mapEval(queue::offer);
+  }
+
   public Stream<T> repeat() {
-    return append(Lazy(this::repeat));
+    // the body is going to be evaluated many times, so it's worth optimizing once
+    return optimize().repeatOptimized();
+  }
+
+  private Stream<T> repeatOptimized() {
+    return append(Lazy(this::repeatOptimized));
+  }
+
+  /**
+   * Apply {@link IO#optimize()} to the IOs of this stream that are known without evaluating it:
+   * the heads of the leading {@code SCons} cells and the IO of a {@code Defer} cell that follows
+   * them.
+   */
+  Stream<T> optimize() {
+    return this;
   }
 
   /**
@@ -348,6 +377,22 @@ class Cons<T> extends Stream<T> {
   final IO<T> head;
   final Stream<T> tail;
 
+  @Override
+  Stream<T> optimize() {
+    final List<IO<T>> heads = new ArrayList<>();
+    Stream<T> s = this;
+    while (s instanceof Cons) {
+      heads.add(((Cons<T>) s).head.optimize());
+      s = ((Cons<T>) s).tail;
+    }
+
+    Stream<T> result = s.optimize();
+    for (int i = heads.size() - 1; i >= 0; i--) {
+      result = new Cons<>(heads.get(i), result);
+    }
+    return result;
+  }
+
   @Override
   public <R> IO<R> foldRight(IO<R> z, Fn2<T, IO<R>, IO<R>> f) {
     return head.flatMap(h -> f.ap(h, tail.foldRight(z, f)));
@@ -447,6 +492,11 @@ class Defer<T> extends Stream<T> {
 
   final IO<Stream<T>> evalStream;
 
+  @Override
+  Stream<T> optimize() {
+    return new Defer<>(evalStream.optimize());
+  }
+
   @Override
   public <R> IO<R> foldRight(IO<R> z, Fn2<T, IO<R>, IO<R>> f) {
     return evalStream.flatMap(s -> s.foldRight(z, f));
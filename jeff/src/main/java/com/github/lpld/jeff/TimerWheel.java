@@ -0,0 +1,230 @@
+package com.github.lpld.jeff;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hashed timer wheel that is used by {@link IO#sleep(long)}.
+ *
+ * Timers are kept in a circular array of buckets (doubly-linked lists), one bucket per tick. A
+ * timer that is more than one revolution away stays in its bucket and counts down the remaining
+ * rounds. Both scheduling and cancellation are O(1): new timers and cancelled timers are put to
+ * lock-free queues that are drained by the timer thread on each tick. A cancelled timer drops its
+ * task immediately and is unlinked from its bucket on the next tick.
+ *
+ * Expired tasks are not executed on the timer thread, but are passed to the given executor. The
+ * timer thread parks when there are no timers.
+ */
+final class TimerWheel {
+
+  private static final int WHEEL_SIZE = 512;
+  private static final int MASK = WHEEL_SIZE - 1;
+  // limits the amount of work that is done in one tick, so that a burst doesn't delay expiration
+  private static final int MAX_TRANSFERS_PER_TICK = 100_000;
+
+  private final Executor executor;
+  private final long tickNanos;
+  private final Bucket[] wheel = new Bucket[WHEEL_SIZE];
+  private final ConcurrentLinkedQueue<Timeout> pending = new ConcurrentLinkedQueue<>();
+  private final ConcurrentLinkedQueue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+  private final Thread thread;
+  private final long startTime;
+
+  private volatile boolean idle;
+  private volatile boolean shutdown;
+
+  // accessed only by the timer thread
+  private long tick;
+  private int size;
+
+  TimerWheel(String name, Executor executor, long tickDuration, TimeUnit unit) {
+    this.executor = executor;
+    this.tickNanos = unit.toNanos(tickDuration);
+    for (int i = 0; i < WHEEL_SIZE; i++) {
+      wheel[i] = new Bucket();
+    }
+    this.startTime = System.nanoTime();
+    this.thread = new Thread(this::loop, name);
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  /**
+   * Run {@code task} on the executor after {@code delayNanos} nanoseconds.
+   */
+  Timeout schedule(Runnable task, long delayNanos) {
+    if (shutdown) {
+      throw new RejectedExecutionException("Timer is shut down");
+    }
+    // the upper bound prevents overflow, it's more than 70 years anyway
+    final long delay = Math.min(Math.max(delayNanos, 0), Long.MAX_VALUE >> 2);
+    final Timeout timeout = new Timeout(task, System.nanoTime() - startTime + delay);
+    pending.offer(timeout);
+    if (idle) {
+      LockSupport.unpark(thread);
+    }
+    return timeout;
+  }
+
+  void shutdown() {
+    shutdown = true;
+    LockSupport.unpark(thread);
+  }
+
+  private void loop() {
+    while (!shutdown) {
+      if (size == 0 && pending.isEmpty()) {
+        idle = true;
+        // re-check after announcing ourselves, so that a concurrent schedule is not missed
+        if (pending.isEmpty() && !shutdown) {
+          LockSupport.park(this);
+        }
+        idle = false;
+        // the wheel is empty, so skipped ticks don't need to be processed
+        tick = Math.max(tick, (System.nanoTime() - startTime) / tickNanos);
+        continue;
+      }
+
+      waitForTick();
+      removeCancelled();
+      transferPending();
+      expire(wheel[(int) (tick & MASK)]);
+      tick++;
+    }
+  }
+
+  private void waitForTick() {
+    final long deadline = (tick + 1) * tickNanos;
+    for (; ; ) {
+      final long sleep = deadline - (System.nanoTime() - startTime);
+      if (sleep <= 0 || shutdown) {
+        return;
+      }
+      LockSupport.parkNanos(this, sleep);
+    }
+  }
+
+  private void removeCancelled() {
+    Timeout timeout;
+    while ((timeout = cancelled.poll()) != null) {
+      if (timeout.bucket != null) {
+        timeout.bucket.remove(timeout);
+        size--;
+      }
+    }
+  }
+
+  private void transferPending() {
+    for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+      final Timeout timeout = pending.poll();
+      if (timeout == null) {
+        return;
+      }
+      if (timeout.get() != Timeout.ACTIVE) {
+        continue;
+      }
+      final long deadlineTick = timeout.deadline / tickNanos;
+      // a timer that is already due goes to the current bucket
+      final long targetTick = Math.max(deadlineTick, tick);
+      timeout.remainingRounds = (targetTick - tick) / WHEEL_SIZE;
+      wheel[(int) (targetTick & MASK)].add(timeout);
+      size++;
+    }
+  }
+
+  private void expire(Bucket bucket) {
+    Timeout timeout = bucket.head;
+    while (timeout != null) {
+      final Timeout next = timeout.next;
+      if (timeout.remainingRounds <= 0) {
+        bucket.remove(timeout);
+        size--;
+        timeout.expire();
+      } else {
+        timeout.remainingRounds--;
+      }
+      timeout = next;
+    }
+  }
+
+  final class Timeout extends AtomicInteger {
+
+    private static final int ACTIVE = 0;
+    private static final int EXPIRED = 1;
+    private static final int CANCELLED = 2;
+
+    private final long deadline;
+    private volatile Runnable task;
+
+    // accessed only by the timer thread
+    private long remainingRounds;
+    private Bucket bucket;
+    private Timeout prev;
+    private Timeout next;
+
+    private Timeout(Runnable task, long deadline) {
+      this.task = task;
+      this.deadline = deadline;
+    }
+
+    /**
+     * Cancel this timer. Returns false if it has already expired or has been cancelled.
+     */
+    boolean cancel() {
+      if (!compareAndSet(ACTIVE, CANCELLED)) {
+        return false;
+      }
+      task = null;
+      cancelled.offer(this);
+      return true;
+    }
+
+    private void expire() {
+      if (compareAndSet(ACTIVE, EXPIRED)) {
+        final Runnable action = task;
+        task = null;
+        try {
+          executor.execute(action);
+        } catch (RejectedExecutionException ignored) {
+          // the runtime is shutting down
+        }
+      }
+    }
+  }
+
+  private static final class Bucket {
+
+    private Timeout head;
+    private Timeout tail;
+
+    void add(Timeout timeout) {
+      timeout.bucket = this;
+      if (head == null) {
+        head = tail = timeout;
+      } else {
+        tail.next = timeout;
+        timeout.prev = tail;
+        tail = timeout;
+      }
+    }
+
+    void remove(Timeout timeout) {
+      if (timeout.prev == null) {
+        head = timeout.next;
+      } else {
+        timeout.prev.next = timeout.next;
+      }
+      if (timeout.next == null) {
+        tail = timeout.prev;
+      } else {
+        timeout.next.prev = timeout.prev;
+      }
+      timeout.prev = timeout.next = null;
+      timeout.bucket = null;
+    }
+  }
+}
@@ -0,0 +1,416 @@
+package com.github.lpld.jeff;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Work-stealing executor that is used as a compute scheduler by {@link IORuntime}.
+ *
+ * Each worker has a bounded local queue and a LIFO slot. A task submitted from a worker thread
+ * goes to the LIFO slot of that worker (the task that was in the slot before is moved to the local
+ * queue), so that a continuation scheduled by an async boundary runs next on the same thread.
+ * Tasks submitted from outside go to the global queue. A worker that has no work steals half of
+ * the local queue of another worker, and parks when there's nothing to steal.
+ *
+ * Local queues are single-producer (the owner pushes to the tail) and multi-consumer (the owner
+ * and thieves take from the head with a CAS). Only the owner writes to the slots of its queue, so
+ * it also clears the slots of the tasks that have been taken by thieves.
+ *
+ * The LIFO slot is not stolen as long as its worker makes progress. But a worker may block in a
+ * task without calling {@link #beforeBlocking()}, so while some workers are running, one of the
+ * parked workers wakes up every {@link #LIFO_STEAL_DELAY} nanoseconds and takes over a task that
+ * has been waiting in a LIFO slot while its worker has been running the same task all that time.
+ */
+final class WorkStealingPool implements Executor {
+
+  private static final int LOCAL_CAPACITY = 256;
+  private static final int MASK = LOCAL_CAPACITY - 1;
+
+  // how often a worker checks the global queue before its own one (for fairness)
+  private static final int GLOBAL_POLL_INTERVAL = 61;
+  // how many times in a row the LIFO slot may be polled before the local queue gets its turn
+  private static final int MAX_LIFO_POLLS = 3;
+  // how long a task may wait in the LIFO slot of a worker that is stuck in another task
+  private static final long LIFO_STEAL_DELAY = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private static final int RUNNING = 0;
+  private static final int PARKED = 1;
+  private static final int NOTIFIED = 2;
+
+  private final Worker[] workers;
+  private final ConcurrentLinkedQueue<Runnable> global = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger parked = new AtomicInteger();
+  // whether some parked worker watches the LIFO slots of the running ones
+  private final AtomicBoolean watching = new AtomicBoolean();
+  private volatile boolean shutdown;
+
+  WorkStealingPool(String name, int parallelism) {
+    if (parallelism <= 0) {
+      throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+    }
+    workers = new Worker[parallelism];
+    for (int i = 0; i < parallelism; i++) {
+      workers[i] = new Worker(name + "-" + (i + 1));
+    }
+    for (Worker worker : workers) {
+      worker.start();
+    }
+  }
+
+  int parallelism() {
+    return workers.length;
+  }
+
+  @Override
+  public void execute(Runnable task) {
+    Objects.requireNonNull(task);
+    if (shutdown) {
+      throw new RejectedExecutionException("Pool is shut down");
+    }
+
+    final Thread current = Thread.currentThread();
+    if (current instanceof Worker && ((Worker) current).pool() == this) {
+      // if nobody watches the LIFO slots, a parked worker is woken up to do that
+      if (((Worker) current).schedule(task) || !watching.get()) {
+        notifyParked();
+      }
+    } else {
+      global.offer(task);
+      notifyParked();
+    }
+  }
+
+  /**
+   * Must be called before the current thread blocks: if it is a worker, the task in its LIFO slot
+   * is made available to other workers (otherwise it would wait until the thread is unblocked).
+   */
+  static void beforeBlocking() {
+    final Thread current = Thread.currentThread();
+    if (current instanceof Worker) {
+      ((Worker) current).releaseLifo();
+    }
+  }
+
+  void shutdown() {
+    shutdown = true;
+    for (Worker worker : workers) {
+      LockSupport.unpark(worker);
+    }
+  }
+
+  private void notifyParked() {
+    if (parked.get() == 0) {
+      return;
+    }
+    final int start = ThreadLocalRandom.current().nextInt(workers.length);
+    for (int i = 0; i < workers.length; i++) {
+      final Worker worker = workers[(start + i) % workers.length];
+      if (worker.state.get() == PARKED && worker.state.compareAndSet(PARKED, NOTIFIED)) {
+        parked.decrementAndGet();
+        LockSupport.unpark(worker);
+        return;
+      }
+    }
+  }
+
+  private boolean hasWork() {
+    if (!global.isEmpty()) {
+      return true;
+    }
+    for (Worker worker : workers) {
+      if (worker.size() > 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * A worker other than {@code self} that has a task in its LIFO slot, or {@code null}.
+   */
+  private Worker pendingLifo(Worker self) {
+    for (Worker worker : workers) {
+      if (worker != self && worker.lifo.get() != null) {
+        return worker;
+      }
+    }
+    return null;
+  }
+
+  private final class Worker extends Thread {
+
+    private final AtomicReferenceArray<Runnable> buffer = new AtomicReferenceArray<>(LOCAL_CAPACITY);
+    // position of the next task to take; advanced with a CAS by the owner and by thieves
+    private final AtomicLong head = new AtomicLong();
+    // position of the next free slot; written only by the owner
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicInteger state = new AtomicInteger(RUNNING);
+    // written by the owner, taken over by the watcher if the owner is stuck
+    private final AtomicReference<Runnable> lifo = new AtomicReference<>();
+    // number of completed tasks; written only by the owner
+    private final AtomicLong runs = new AtomicLong();
+
+    // fields below are accessed only by the owner
+    private int lifoPolls;
+    // slots before this position have been cleared
+    private long cleared;
+    private int tick;
+    private int seed = ThreadLocalRandom.current().nextInt() | 1;
+
+    Worker(String name) {
+      super(name);
+      setDaemon(true);
+    }
+
+    WorkStealingPool pool() {
+      return WorkStealingPool.this;
+    }
+
+    @Override
+    public void run() {
+      while (!shutdown) {
+        final Runnable task = next();
+        if (task == null) {
+          park();
+        } else {
+          try {
+            task.run();
+          } catch (Throwable t) {
+            getUncaughtExceptionHandler().uncaughtException(this, t);
+          }
+          runs.lazySet(runs.get() + 1);
+        }
+      }
+    }
+
+    /**
+     * Put a task to the LIFO slot. Returns true if some task became available for stealing.
+     */
+    boolean schedule(Runnable task) {
+      final Runnable prev = lifo.getAndSet(task);
+      if (prev == null) {
+        return false;
+      }
+      push(prev);
+      return true;
+    }
+
+    void releaseLifo() {
+      final Runnable task = lifo.getAndSet(null);
+      if (task != null) {
+        push(task);
+        notifyParked();
+      }
+    }
+
+    long size() {
+      return tail.get() - head.get();
+    }
+
+    private Runnable next() {
+      if (++tick % GLOBAL_POLL_INTERVAL == 0) {
+        final Runnable task = global.poll();
+        if (task != null) {
+          return task;
+        }
+      }
+
+      final Runnable fromLifo = lifo.get() == null ? null : lifo.getAndSet(null);
+      if (fromLifo != null) {
+        if (lifoPolls++ < MAX_LIFO_POLLS) {
+          return fromLifo;
+        }
+        push(fromLifo);
+        notifyParked();
+      }
+      lifoPolls = 0;
+
+      Runnable task = poll();
+      if (task == null) {
+        task = global.poll();
+      }
+      if (task == null) {
+        task = steal();
+      }
+      return task;
+    }
+
+    private void push(Runnable task) {
+      // must be done before the slot at the tail is reused
+      clearTaken();
+
+      for (; ; ) {
+        final long h = head.get();
+        final long t = tail.get();
+
+        if (t - h < LOCAL_CAPACITY) {
+          buffer.lazySet((int) t & MASK, task);
+          // a volatile write: a worker that is going to park must either see the task or be notified
+          tail.set(t + 1);
+          return;
+        }
+
+        // the queue is full: move half of it to the global queue
+        final long n = LOCAL_CAPACITY / 2;
+        final Runnable[] batch = new Runnable[(int) n];
+        for (int i = 0; i < n; i++) {
+          batch[i] = buffer.get((int) (h + i) & MASK);
+        }
+        if (head.compareAndSet(h, h + n)) {
+          for (Runnable r : batch) {
+            global.offer(r);
+          }
+          global.offer(task);
+          return;
+        }
+      }
+    }
+
+    private Runnable poll() {
+      clearTaken();
+
+      for (; ; ) {
+        final long h = head.get();
+        if (h == tail.get()) {
+          return null;
+        }
+        final Runnable task = buffer.get((int) h & MASK);
+        if (head.compareAndSet(h, h + 1)) {
+          // nobody but the owner can write to this slot now
+          buffer.lazySet((int) h & MASK, null);
+          return task;
+        }
+      }
+    }
+
+    /**
+     * Clear the slots of the tasks that have been taken by thieves or moved to the global queue,
+     * so that they don't stay reachable. Thieves can't do it themselves: after they advance the
+     * head, the owner may already be reusing the slots. The owner calls this before it writes to
+     * its slots (in push and steal), so the cleared slots never overlap with the ones in use.
+     */
+    private void clearTaken() {
+      final long h = head.get();
+      while (cleared < h) {
+        buffer.lazySet((int) cleared++ & MASK, null);
+      }
+    }
+
+    private Runnable steal() {
+      if (workers.length == 1) {
+        return null;
+      }
+      // stolen tasks are written to the local queue
+      clearTaken();
+      seed ^= seed << 13;
+      seed ^= seed >>> 17;
+      seed ^= seed << 5;
+      final int start = (seed & Integer.MAX_VALUE) % workers.length;
+
+      for (int i = 0; i < workers.length; i++) {
+        final Worker victim = workers[(start + i) % workers.length];
+        if (victim != this) {
+          final Runnable task = stealFrom(victim);
+          if (task != null) {
+            return task;
+          }
+        }
+      }
+      return null;
+    }
+
+    /**
+     * Take half of the victim's queue: the first task is returned and the rest is moved to the
+     * local queue (which is empty at this point).
+     */
+    private Runnable stealFrom(Worker victim) {
+      for (; ; ) {
+        final long h = victim.head.get();
+        final long t = victim.tail.get();
+        final long available = t - h;
+        if (available <= 0) {
+          return null;
+        }
+        final long n = Math.min(available - available / 2, LOCAL_CAPACITY / 2);
+
+        // slots must be read before the CAS: after it the victim may reuse them
+        final Runnable first = victim.buffer.get((int) h & MASK);
+        final long ownTail = tail.get();
+        for (long i = 1; i < n; i++) {
+          buffer.lazySet((int) (ownTail + i - 1) & MASK, victim.buffer.get((int) (h + i) & MASK));
+        }
+
+        if (victim.head.compareAndSet(h, h + n)) {
+          tail.lazySet(ownTail + n - 1);
+          return first;
+        }
+      }
+    }
+
+    private void park() {
+      state.set(PARKED);
+      parked.incrementAndGet();
+
+      // re-check after announcing ourselves, so that a concurrent submission is not missed
+      if (!hasWork() && !shutdown && !watchLifos()) {
+        while (state.get() == PARKED && !shutdown) {
+          LockSupport.park(this);
+        }
+      }
+
+      if (state.compareAndSet(PARKED, RUNNING)) {
+        parked.decrementAndGet();
+      } else {
+        state.set(RUNNING);
+      }
+    }
+
+    /**
+     * Unless another parked worker does it already, check the LIFO slots of the running workers
+     * every {@link #LIFO_STEAL_DELAY} nanoseconds, as long as there are running workers. A task
+     * that is still there after the delay, while its worker hasn't completed any task, is moved to
+     * the LIFO slot of this worker. Returns {@code true} if a task has been taken over or this
+     * worker has been notified.
+     */
+    private boolean watchLifos() {
+      while (watching.compareAndSet(false, true)) {
+        try {
+          while (parked.get() < workers.length) {
+            final Worker victim = pendingLifo(this);
+            final Runnable task = victim == null ? null : victim.lifo.get();
+            final long victimRuns = victim == null ? 0 : victim.runs.get();
+
+            LockSupport.parkNanos(this, LIFO_STEAL_DELAY);
+            if (state.get() != PARKED || shutdown) {
+              return true;
+            }
+            if (task != null && victim.runs.get() == victimRuns
+                && victim.lifo.compareAndSet(task, null)) {
+              lifo.set(task);
+              return true;
+            }
+          }
+        } finally {
+          watching.set(false);
+        }
+
+        // a task that was put to a LIFO slot before the flag was cleared could have been missed
+        // by the scheduling side, so check once more
+        if (pendingLifo(this) == null) {
+          return false;
+        }
+      }
+      return false;
+    }
+  }
+}
@@ -0,0 +1,21 @@
+package com.github.lpld.jeff;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * JDK 21+ implementation of the pool that is used by {@link IO#blocking}: every action runs on
+ * a new virtual thread, so blocking does not occupy a platform thread.
+ */
+final class BlockingPool {
+
+  private static final ExecutorService POOL = Executors.newThreadPerTaskExecutor(
+      Thread.ofVirtual().name("jeff-blocking-", 1).factory());
+
+  private BlockingPool() {
+  }
+
+  static void execute(Runnable action) {
+    POOL.execute(action);
+  }
+}
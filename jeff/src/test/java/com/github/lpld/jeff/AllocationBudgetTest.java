@@ -0,0 +1,120 @@
+package com.github.lpld.jeff;
+
+import com.github.lpld.jeff.functions.Xn0;
+
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Properties;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Allocation regression tests: bytes allocated per step of canonical programs must stay within
+ * the budgets in {@code allocation-budgets.properties}. A budget has some headroom over the
+ * measured value, so only an extra wrapper object per step (or more) makes a test fail. When an
+ * optimization lowers the allocation rate, the budget should be lowered too.
+ *
+ * All the programs are synchronous, so everything they allocate is allocated by the test thread.
+ */
+public class AllocationBudgetTest {
+
+  private static final int STEPS = 10_000;
+  private static final int ROUNDS = 20;
+
+  private static com.sun.management.ThreadMXBean threads;
+  private static Properties budgets;
+
+  @BeforeClass
+  public static void init() throws IOException {
+    final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+    threads = (com.sun.management.ThreadMXBean) bean;
+    Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+    threads.setThreadAllocatedMemoryEnabled(true);
+    Assume.assumeTrue(threads.isThreadAllocatedMemoryEnabled());
+
+    budgets = new Properties();
+    try (InputStream in = AllocationBudgetTest.class.getResourceAsStream("/allocation-budgets.properties")) {
+      budgets.load(in);
+    }
+  }
+
+  @Test
+  public void flatMapLoop() {
+    checkBudget("flatMapLoop", () -> flatMapLoop(0).run());
+  }
+
+  @Test
+  public void mapChain() {
+    checkBudget("mapChain", () -> {
+      IO<Integer> io = IO.pure(0);
+      for (int i = 0; i < STEPS; i++) {
+        io = io.map(x -> x + 1);
+      }
+      return io.run();
+    });
+  }
+
+  @Test
+  public void streamDrain() {
+    checkBudget("streamDrain", () -> Stream.integers().take(STEPS).drain().run());
+  }
+
+  @Test
+  public void attemptLoop() {
+    final IllegalStateException error = new IllegalStateException();
+    checkBudget("attemptLoop", () -> attemptLoop(0, error).run());
+  }
+
+  @Test
+  public void syncRun() {
+    checkBudget("syncRun", () -> {
+      int sum = 0;
+      for (int i = 0; i < STEPS; i++) {
+        final int ii = i;
+        sum += IO.delay(() -> ii).run();
+      }
+      return sum;
+    });
+  }
+
+  private static IO<Integer> flatMapLoop(int i) {
+    return i < STEPS ? IO.pure(i + 1).flatMap(AllocationBudgetTest::flatMapLoop) : IO.pure(i);
+  }
+
+  private static IO<Integer> attemptLoop(int i, Throwable error) {
+    return i < STEPS
+           ? IO.<Integer>failFast(error).attempt().flatMap(r -> attemptLoop(i + 1, error))
+           : IO.pure(i);
+  }
+
+  /**
+   * Run the program {@code ROUNDS} times and compare the smallest number of bytes allocated per
+   * step with the budget (the first rounds run before JIT compilation and may allocate more).
+   */
+  private static void checkBudget(String name, Xn0<?> program) {
+    final long budget = Long.parseLong(budgets.getProperty(name));
+    final long threadId = Thread.currentThread().getId();
+
+    long min = Long.MAX_VALUE;
+    for (int i = 0; i < ROUNDS; i++) {
+      final long before = threads.getThreadAllocatedBytes(threadId);
+      try {
+        program.ap();
+      } catch (Throwable err) {
+        throw new AssertionError(err);
+      }
+      min = Math.min(min, threads.getThreadAllocatedBytes(threadId) - before);
+    }
+
+    final long perStep = min / STEPS;
+    assertThat(name + " allocates " + perStep + " bytes per step, the budget is " + budget,
+               perStep <= budget, is(true));
+  }
+}
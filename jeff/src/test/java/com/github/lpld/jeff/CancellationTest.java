@@ -0,0 +1,89 @@
+package com.github.lpld.jeff;
+
+import com.github.lpld.jeff.data.Or;
+import com.github.lpld.jeff.data.Unit;
+
+import org.junit.Test;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.github.lpld.jeff.IO.IO;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Concurrency stress tests for cancellation.
+ */
+public class CancellationTest extends IOTestBase {
+
+  private static final int ITERATIONS = 2000;
+
+  @Test
+  public void raceStress() throws Exception {
+    final AtomicInteger steps = new AtomicInteger();
+
+    for (int i = 0; i < ITERATIONS; i++) {
+      final Or<Integer, Integer> result = IO
+          .race(Resources.getMultiPool(), forks(steps, 10).map(u -> 1), forks(steps, 10).map(u -> 2))
+          .run();
+
+      assertThat(result.isLeft() || result.isRight(), is(true));
+    }
+
+    // losers must stop at their next async boundary, so the counter must settle down quickly:
+    Thread.sleep(200);
+    final int settled = steps.get();
+    Thread.sleep(200);
+    assertThat(steps.get(), is(settled));
+  }
+
+  @Test
+  public void cancelIsNeverLost() throws Exception {
+
+    for (int i = 0; i < ITERATIONS; i++) {
+      final AtomicInteger steps = new AtomicInteger();
+      final AtomicInteger calls = new AtomicInteger();
+      final AtomicReference<Or<Throwable, Unit>> outcome = new AtomicReference<>();
+      final CountDownLatch done = new CountDownLatch(1);
+      final CancellableIO task = CancellableIO.create();
+
+      IORun.start(IO.forked(Resources.getMultiPool()).chain(forks(steps, 1000)), task, res -> {
+        calls.incrementAndGet();
+        outcome.set(res);
+        done.countDown();
+      });
+
+      final int delay = ThreadLocalRandom.current().nextInt(50);
+      Resources.executor(1).execute(() -> {
+        for (int j = 0; j < delay; j++) {
+          Thread.yield();
+        }
+        task.cancel();
+      });
+
+      assertThat(done.await(5, TimeUnit.SECONDS), is(true));
+
+      if (outcome.get().isLeft()) {
+        assertThat(outcome.get().getLeft() instanceof CancellationException, is(true));
+
+        final int stepsAfterCancel = steps.get();
+        Thread.sleep(1);
+        assertThat(steps.get(), is(stepsAfterCancel));
+      }
+
+      assertThat(calls.get(), is(1));
+    }
+  }
+
+  private static IO<Unit> forks(AtomicInteger steps, int n) {
+    return n == 0 ? IO.unit
+                  : IO(steps::incrementAndGet)
+                      .fork(Resources.getMultiPool())
+                      .chain(IO.suspend(() -> forks(steps, n - 1)));
+  }
+}
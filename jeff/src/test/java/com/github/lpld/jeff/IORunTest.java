@@ -0,0 +1,297 @@
+package com.github.lpld.jeff;
+
+import com.github.lpld.jeff.data.Or;
+import com.github.lpld.jeff.data.Pr;
+import com.github.lpld.jeff.data.Unit;
+import com.github.lpld.jeff.functions.Run1;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.github.lpld.jeff.data.Or.Left;
+import static com.github.lpld.jeff.data.Or.Right;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests of the run loop and its {@link CallStack}.
+ */
+public class IORunTest extends IOTestBase {
+
+  private static final int DEPTH = 100_000;
+
+  @Test
+  public void callStackGrowth() {
+    final CallStack stack = new CallStack();
+    final Attempt<Unit> attempt = new Attempt<>(IO.unit);
+    final Recover<Unit> recover = new Recover<>(IO.unit, err -> Optional.empty());
+
+    // well past the initial capacity, every tenth frame is a recovery frame:
+    final List<Object> pushed = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      final Object frame = i % 10 == 0 ? recover : i % 10 == 5 ? attempt : new Object();
+      pushed.add(frame);
+      stack.push(frame);
+    }
+
+    // continuations come out in reverse order, skipping the plain recovery frames:
+    for (int i = pushed.size() - 1; i > 500; i--) {
+      if (pushed.get(i) != recover) {
+        assertThat(stack.popContinuation(), is(pushed.get(i)));
+      }
+    }
+    // recovery frames come out in reverse order, skipping continuations:
+    for (int i = 500; i >= 0; i--) {
+      if (pushed.get(i) instanceof Handler) {
+        assertThat(stack.popRecovery(), is(pushed.get(i)));
+      }
+    }
+    assertThat(stack.isEmpty(), is(true));
+    assertThat(stack.popContinuation(), nullValue());
+    assertThat(stack.popRecovery(), nullValue());
+
+    // the stack can be reused after it has been drained:
+    stack.push(attempt);
+    assertThat(stack.popRecovery(), is(attempt));
+  }
+
+  @Test
+  public void leftNestedBinds() {
+    IO<Integer> io = IO.pure(0);
+    for (int i = 0; i < DEPTH; i++) {
+      io = io.flatMap(x -> IO.pure(x + 1));
+    }
+
+    assertThat(io.run(), is(DEPTH));
+  }
+
+  @Test
+  public void rightNestedBinds() {
+    assertThat(rightNested(0).run(), is(DEPTH));
+
+    // every continuation produces a left-nested chain, so the stack grows and shrinks repeatedly:
+    IO<Integer> io = IO.pure(0);
+    for (int i = 0; i < 100; i++) {
+      io = io.flatMap(x -> {
+        IO<Integer> inner = IO.pure(x);
+        for (int j = 0; j < 1000; j++) {
+          inner = inner.flatMap(y -> IO.pure(y + 1));
+        }
+        return inner;
+      });
+    }
+
+    assertThat(io.run(), is(DEPTH));
+  }
+
+  @Test
+  public void recoveryFramesBetweenBinds() {
+    final List<Integer> handled = new ArrayList<>();
+
+    // fail at the bottom of a deep stack where every tenth frame is a recovery frame:
+    IO<Integer> io = IO.fail(() -> new IllegalStateException("0"));
+    int bindsAfterAttempt = 0;
+    for (int i = 1; i <= DEPTH; i++) {
+      final int ii = i;
+      if (i % 10 == 0) {
+        io = io.recoverWith(err -> {
+          handled.add(ii);
+          // the first handlers fail again, so the error must be unwound further:
+          return Optional.of(ii < 100
+                             ? IO.fail(() -> new IllegalStateException(String.valueOf(ii)))
+                             : IO.pure(-ii));
+        });
+      } else if (i % 10 == 5) {
+        io = io.attempt().map(r -> r.isLeft() ? r.getLeft().getMessage().length() : r.getRight());
+      } else {
+        io = io.flatMap(x -> IO.pure(x + 1));
+        bindsAfterAttempt += i > 5 ? 1 : 0;
+      }
+    }
+
+    // the attempt frame at depth 5 handles the error (the message "0" has length 1), all the
+    // binds above it are evaluated and all the recovery frames are skipped:
+    assertThat(io.run(), is(1 + bindsAfterAttempt));
+    assertThat(handled.isEmpty(), is(true));
+
+    // without attempt frames, the errors are handled by the recovery frames:
+    handled.clear();
+    IO<Integer> io2 = IO.fail(() -> new IllegalStateException("0"));
+    for (int i = 1; i <= 1000; i++) {
+      final int ii = i;
+      if (i % 10 == 0) {
+        io2 = io2.recoverWith(err -> {
+          handled.add(ii);
+          return Optional.of(ii < 100
+                             ? IO.fail(() -> new IllegalStateException(String.valueOf(ii)))
+                             : IO.pure(-ii));
+        });
+      } else {
+        io2 = io2.flatMap(x -> IO.pure(x + 1));
+      }
+    }
+
+    // the first nine handlers rethrow, the tenth (at depth 100) recovers, then 810 binds follow:
+    assertThat(io2.run(), is(-100 + 810));
+    assertThat(handled.size(), is(10));
+    assertThat(handled.get(9), is(100));
+  }
+
+  @Test
+  public void stackReuseAfterAsyncResume() {
+    final List<Thread> threads = new ArrayList<>();
+
+    // a deep stack is suspended several times and resumed on other threads:
+    IO<Integer> io = IO.pure(0);
+    for (int i = 1; i <= DEPTH; i++) {
+      final int ii = i;
+      if (i % 20_000 == 0) {
+        io = io.flatMap(x -> IO
+            .forked(Resources.executor(ii / 20_000))
+            .map(u -> {
+              threads.add(Thread.currentThread());
+              return x + 1;
+            }));
+      } else if (i % 20_000 == 10_000) {
+        io = io.recover(err -> Optional.of(-1));
+      } else {
+        io = io.flatMap(x -> IO.pure(x + 1));
+      }
+    }
+
+    assertThat(io.run(), is(DEPTH - 5));
+    assertThat(threads.size(), is(5));
+    assertThat(threads.get(0) != threads.get(4), is(true));
+
+    // errors raised after a resume are handled by the frames pushed before it:
+    final IO<Or<Throwable, Integer>> failed = IO
+        .forked(Resources.executor(0))
+        .chain(IO.sleep(Resources.getScheduler(), 1))
+        .chain(IO.<Integer>fail(IllegalStateException::new))
+        .flatMap(x -> IO.pure(x + 1))
+        .attempt();
+
+    final IO<Or<Throwable, Integer>> deep = nest(failed, 1000);
+    assertThat(deep.run().getLeft() instanceof IllegalStateException, is(true));
+
+    final IO<Integer> recovered = IO
+        .sleep(Resources.getScheduler(), 1)
+        .chain(IO.<Integer>fail(IllegalStateException::new))
+        .recover(err -> Optional.of(2));
+    assertThat(nest(nest(recovered, 1000).attempt(), 1000).run(), equalTo(Right(2)));
+  }
+
+  @Test
+  public void asyncCompletedDuringRegistration() {
+    final Thread caller = Thread.currentThread();
+
+    // on the registering thread: the run loop picks the result up without growing the stack
+    IO<Integer> io = IO.pure(0);
+    for (int i = 0; i < DEPTH; i++) {
+      io = io.flatMap(x -> IO.async(cb -> cb.run(Right(x + 1))));
+    }
+    assertThat(io.run(), is(DEPTH));
+
+    // on another thread that the registration waits for: the registering thread continues
+    final AtomicReference<Thread> continuedOn = new AtomicReference<>();
+    final Integer result = IO
+        .<Integer>async(cb -> runAndJoin(() -> cb.run(Right(1))))
+        .map(x -> {
+          continuedOn.set(Thread.currentThread());
+          return x + 1;
+        })
+        .run();
+
+    assertThat(result, is(2));
+    assertThat(continuedOn.get(), is(caller));
+
+    // a fork to an executor that has already run the task: the evaluation still continues on
+    // the executor rather than on the registering thread
+    final Executor joining = command -> runAndJoin(command);
+    final Thread forkedOn = IO.forked(joining).map(u -> Thread.currentThread()).run();
+    assertThat(forkedOn != caller, is(true));
+  }
+
+  @Test
+  public void asyncCompletedAfterSuspension() {
+    final Pr<Integer, IOStats> result = IO
+        .<Integer>async(cb -> Resources.getScheduler()
+            .schedule(() -> cb.run(Right(5)), 20, TimeUnit.MILLISECONDS))
+        .map(x -> x + 1)
+        .runWithStats();
+
+    assertThat(result._1, is(6));
+    assertThat(result._2.getAsyncBoundaries(), is(1L));
+  }
+
+  @Test
+  public void asyncSecondCompletionIgnored() throws InterruptedException {
+    final AtomicInteger continued = new AtomicInteger();
+
+    // both calls during the registration:
+    final Integer sync = IO
+        .<Integer>async(cb -> {
+          cb.run(Right(1));
+          cb.run(Right(2));
+          runAndJoin(() -> cb.run(Left(new IllegalStateException())));
+        })
+        .map(x -> x + continued.incrementAndGet())
+        .run();
+
+    assertThat(sync, is(2));
+    assertThat(continued.get(), is(1));
+
+    // both calls after the suspension, from different threads:
+    final CountDownLatch registered = new CountDownLatch(1);
+    final AtomicReference<Run1<Or<Throwable, Integer>>> callback = new AtomicReference<>();
+    final CompletableFuture<Integer> future = IO
+        .<Integer>async(cb -> {
+          callback.set(cb);
+          registered.countDown();
+        })
+        .map(x -> x + continued.incrementAndGet())
+        .runAsync();
+
+    registered.await();
+    // the run may not be suspended yet, so the first call may still be picked up by the run loop
+    runAndJoin(() -> callback.get().run(Right(10)));
+    runAndJoin(() -> callback.get().run(Right(20)));
+    callback.get().run(Left(new IllegalStateException()));
+
+    assertThat(future.join(), is(12));
+    Thread.sleep(50);
+    assertThat(continued.get(), is(2));
+  }
+
+  private static void runAndJoin(Runnable action) {
+    final Thread thread = new Thread(action);
+    thread.start();
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static IO<Integer> rightNested(int i) {
+    return i < DEPTH ? IO.pure(i + 1).flatMap(IORunTest::rightNested) : IO.pure(i);
+  }
+
+  private static <T> IO<T> nest(IO<T> io, int depth) {
+    for (int i = 0; i < depth; i++) {
+      io = io.flatMap(IO::pure);
+    }
+    return io;
+  }
+}
@@ -0,0 +1,277 @@
+package com.github.lpld.jeff;
+
+import com.github.lpld.jeff.data.Unit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import static com.github.lpld.jeff.IO.IO;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for the work-stealing compute scheduler.
+ */
+public class IORuntimeTest {
+
+  private IORuntime runtime;
+
+  @Before
+  public void init() {
+    runtime = IORuntime.create(4);
+  }
+
+  @After
+  public void cleanUp() {
+    runtime.shutdown();
+  }
+
+  @Test
+  public void externalAndNestedSubmissions() throws InterruptedException {
+    final Executor compute = runtime.compute();
+    final int outer = 10000;
+    final int inner = 10;
+    final CountDownLatch latch = new CountDownLatch(outer * inner);
+
+    for (int i = 0; i < outer; i++) {
+      compute.execute(() -> {
+        for (int j = 0; j < inner; j++) {
+          compute.execute(latch::countDown);
+        }
+      });
+    }
+
+    assertThat(latch.await(10, TimeUnit.SECONDS), is(true));
+  }
+
+  @Test
+  public void workIsStolen() throws InterruptedException {
+    final Executor compute = runtime.compute();
+    final Set<String> threads = ConcurrentHashMap.newKeySet();
+    final CountDownLatch latch = new CountDownLatch(1000);
+
+    // all the tasks are submitted by a single worker, so other workers can only get them by stealing
+    compute.execute(() -> {
+      for (int i = 0; i < 1000; i++) {
+        compute.execute(() -> {
+          threads.add(Thread.currentThread().getName());
+          busyWait(100_000);
+          latch.countDown();
+        });
+      }
+    });
+
+    assertThat(latch.await(10, TimeUnit.SECONDS), is(true));
+    assertThat(threads.size() > 1, is(true));
+  }
+
+  @Test
+  public void asyncHops() {
+    final AtomicInteger counter = new AtomicInteger();
+
+    final List<IO<Unit>> ios = IntStream
+        .range(0, 100)
+        .mapToObj(i -> hops(counter, 1000))
+        .collect(Collectors.toList());
+
+    IOFunctions.parSequence(runtime.compute(), 100, ios).run();
+
+    assertThat(counter.get(), is(100 * 1000));
+  }
+
+  @Test
+  public void blockingRunOnWorker() throws InterruptedException {
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    // the continuation after the fork goes to the LIFO slot of the worker that is blocked in run()
+    runtime.compute().execute(() -> {
+      IO.forked(runtime.compute()).chain(IO(latch::countDown)).run();
+    });
+
+    assertThat(latch.await(5, TimeUnit.SECONDS), is(true));
+  }
+
+  @Test
+  public void lifoTaskOfStuckWorker() throws InterruptedException {
+    final CountDownLatch continued = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(1);
+
+    // the task goes to the LIFO slot of a worker that blocks without calling beforeBlocking(), while
+    // all the other workers are parked
+    runtime.compute().execute(() -> {
+      runtime.compute().execute(continued::countDown);
+      try {
+        if (continued.await(5, TimeUnit.SECONDS)) {
+          done.countDown();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+
+    assertThat(done.await(5, TimeUnit.SECONDS), is(true));
+  }
+
+  @Test
+  public void stolenTasksAreReleased() throws InterruptedException {
+    final Executor compute = runtime.compute();
+    final int count = 1000;
+    final List<WeakReference<Object>> payloads = new ArrayList<>();
+    final CountDownLatch executed = new CountDownLatch(count);
+    final CountDownLatch done = new CountDownLatch(1);
+
+    // the submitting worker is busy until all the tasks have been executed by thieves
+    compute.execute(() -> {
+      for (int i = 0; i < count; i++) {
+        final Object payload = new Object();
+        payloads.add(new WeakReference<>(payload));
+        compute.execute(() -> {
+          payload.hashCode();
+          executed.countDown();
+        });
+      }
+      try {
+        executed.await(5, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      done.countDown();
+    });
+
+    assertThat(done.await(10, TimeUnit.SECONDS), is(true));
+
+    // the last task executed by each worker may still be referenced from its stack
+    long retained = count;
+    for (int i = 0; i < 50 && retained > runtime.parallelism(); i++) {
+      System.gc();
+      Thread.sleep(20);
+      retained = payloads.stream().filter(ref -> ref.get() != null).count();
+    }
+    assertThat("retained " + retained, retained <= runtime.parallelism(), is(true));
+  }
+
+  @Test(expected = RejectedExecutionException.class)
+  public void rejectAfterShutdown() {
+    runtime.shutdown();
+    runtime.compute().execute(() -> {
+    });
+  }
+
+  @Test
+  public void timers() throws InterruptedException {
+    final int count = 10000;
+    final CountDownLatch latch = new CountDownLatch(count);
+    final AtomicInteger early = new AtomicInteger();
+
+    for (int i = 0; i < count; i++) {
+      final long delay = TimeUnit.MILLISECONDS.toNanos(ThreadLocalRandom.current().nextInt(100));
+      final long deadline = System.nanoTime() + delay;
+      runtime.timer().schedule(() -> {
+        if (System.nanoTime() < deadline) {
+          early.incrementAndGet();
+        }
+        latch.countDown();
+      }, delay);
+    }
+
+    assertThat(latch.await(5, TimeUnit.SECONDS), is(true));
+    assertThat(early.get(), is(0));
+  }
+
+  @Test
+  public void cancelledTimers() throws InterruptedException {
+    final AtomicInteger fired = new AtomicInteger();
+    final List<TimerWheel.Timeout> timeouts = IntStream
+        .range(0, 1000)
+        .mapToObj(i -> runtime.timer().schedule(fired::incrementAndGet, TimeUnit.MILLISECONDS.toNanos(50)))
+        .collect(Collectors.toList());
+
+    for (TimerWheel.Timeout timeout : timeouts) {
+      assertThat(timeout.cancel(), is(true));
+      assertThat(timeout.cancel(), is(false));
+    }
+
+    Thread.sleep(150);
+    assertThat(fired.get(), is(0));
+  }
+
+  @Test
+  public void metrics() throws Exception {
+    IORuntime.enableMetrics();
+    try {
+      final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      final ObjectName name = new ObjectName("com.github.lpld.jeff:type=JeffRuntime");
+      final long runs = (Long) server.getAttribute(name, "RunsStarted");
+      final long hops = (Long) server.getAttribute(name, "AsyncHops");
+      final long failures = (Long) server.getAttribute(name, "UnhandledFailures");
+      final long cancellations = (Long) server.getAttribute(name, "Cancellations");
+
+      // every fork switches the executor, so each of them is an async hop:
+      final ExecutorService single = Executors.newSingleThreadExecutor();
+      try {
+        IO<Unit> io = IO.unit;
+        for (int i = 0; i < 100; i++) {
+          io = io.fork(i % 2 == 0 ? runtime.compute() : single);
+        }
+        io.run();
+      } finally {
+        single.shutdown();
+      }
+      IO.fail(IllegalStateException::new).attempt().run();
+      IO.fail(IllegalStateException::new).runAsync().handle((r, err) -> r).join();
+
+      // cancelling a completed run has no effect:
+      IO.unit.start(runtime.compute()).flatMap(fiber -> fiber.join().chain(fiber.cancel())).run();
+      assertThat(server.getAttribute(name, "Cancellations"), is(cancellations));
+      IO.never()
+          .start(runtime.compute())
+          .flatMap(fiber -> fiber.cancel().chain(fiber.join().attempt()))
+          .run();
+
+      assertThat((Long) server.getAttribute(name, "RunsStarted") - runs >= 4, is(true));
+      assertThat((Long) server.getAttribute(name, "AsyncHops") - hops >= 100, is(true));
+      assertThat((Long) server.getAttribute(name, "UnhandledFailures") - failures >= 1, is(true));
+      assertThat((Long) server.getAttribute(name, "Cancellations") - cancellations >= 1, is(true));
+      assertThat((Double) server.getAttribute(name, "AsyncHopRate") > 0, is(true));
+    } finally {
+      IORuntime.disableMetrics();
+    }
+    assertThat(ManagementFactory.getPlatformMBeanServer()
+                   .isRegistered(new ObjectName("com.github.lpld.jeff:type=JeffRuntime")), is(false));
+  }
+
+  private IO<Unit> hops(AtomicInteger counter, int n) {
+    return n == 0 ? IO.unit
+                  : IO(counter::incrementAndGet)
+                      .fork(runtime.compute())
+                      .chain(IO.suspend(() -> hops(counter, n - 1)));
+  }
+
+  private static void busyWait(long nanos) {
+    final long start = System.nanoTime();
+    while (System.nanoTime() - start < nanos) {
+      // spin
+    }
+  }
+}
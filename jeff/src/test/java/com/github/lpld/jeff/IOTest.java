@@ -9,18 +9,30 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static com.github.lpld.jeff.IO.IO;
 import static com.github.lpld.jeff.data.Or.Left;
 import static com.github.lpld.jeff.data.Or.Right;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.junit.Assert.assertThat;
 
 public class IOTest extends IOTestBase {
@@ -79,6 +91,50 @@ public class IOTest extends IOTestBase {
     assertThat(result, is("333"));
   }
 
+  @Test
+  public void runOnCallingThread() {
+    final Thread caller = Thread.currentThread();
+    final IO<Thread> io = IO(Thread::currentThread).flatMap(t -> IO.suspend(() -> IO.pure(t)));
+
+    assertThat(io.run(), is(caller));
+    assertThat(IO.forked(Resources.getSinglePool()).chain(io).run() != caller, is(true));
+  }
+
+  @Test
+  public void runRethrows() {
+    final IllegalStateException error = new IllegalStateException();
+    try {
+      IO.fail(() -> error).run();
+      throw new AssertionError();
+    } catch (IllegalStateException err) {
+      assertThat(err, is(error));
+    }
+
+    final Exception checked = new Exception();
+    try {
+      IO.sleep(1).chain(IO.fail(() -> checked)).run();
+      throw new AssertionError();
+    } catch (WrappedError err) {
+      assertThat(err.getCause(), is(checked));
+    }
+  }
+
+  @Test
+  public void failFast() {
+    final IllegalStateException expected = new IllegalStateException("control");
+    final IO<Or<Throwable, Integer>> io = IO.<Integer>failFast(expected).attempt();
+
+    assertThat(io.run().getLeft(), is(expected));
+    assertThat(io.run().getLeft(), is(expected));
+
+    final ControlThrowable control = new ControlThrowable("stop") {
+    };
+    assertThat(control.getStackTrace().length, is(0));
+    assertThat(IO.<String>failFast(control)
+                   .recover(Recovery.rules(Recovery.on(ControlThrowable.class).doReturn("stopped")))
+                   .run(), is("stopped"));
+  }
+
   @Test
   public void failRecoverFail() {
     final IO<?> failed = IO.<String>fail(() -> new RuntimeException("error1"))
@@ -259,4 +315,524 @@ public class IOTest extends IOTestBase {
 
     io.run();
   }
+
+  @Test
+  public void mapChainStackSafety() {
+
+    IO<Integer> io = IO.pure(0);
+
+    for (int i = 0; i < 100000; i++) {
+      io = io.map(x -> x + 1);
+    }
+
+    assertThat(io.run(), is(100000));
+    assertThat(io.map(x -> x * 2).run(), is(200000));
+  }
+
+  @Test
+  public void attemptChain() {
+
+    IO<Integer> io = IO.pure(0);
+
+    for (int i = 0; i < 100000; i++) {
+      final int ii = i;
+      io = io
+          .flatMap(x -> ii % 2 == 0 ? IO.<Integer>fail(() -> new RuntimeException("" + x)) : IO.pure(x))
+          .attempt()
+          .map(r -> r.isRight() ? r.getRight() + 1 : Integer.parseInt(r.getLeft().getMessage()) + 2)
+          .recover(err -> Optional.of(-1));
+    }
+
+    assertThat(io.run(), is(150000));
+  }
+
+  @Test
+  public void runWithStats() {
+    final IO<Integer> io = IO(() -> 1)
+        .flatMap(x -> IO.suspend(() -> IO.pure(x + 1)))
+        .map(x -> x * 2)
+        .flatMap(x -> IO.sleep(50).map(u -> x))
+        .chain(IO.<Integer>fail(IllegalStateException::new))
+        .recover(err -> Optional.of(5))
+        .attempt()
+        .map(Or::getRight);
+
+    final Pr<Integer, IOStats> result = io.runWithStats();
+    final IOStats stats = result._2;
+
+    assertThat(result._1, is(5));
+    assertThat(stats.getBinds(), is(3L));
+    assertThat(stats.getMaps(), is(3L));
+    assertThat(stats.getDelays(), is(1L));
+    assertThat(stats.getSuspends(), is(1L));
+    assertThat(stats.getAsyncs(), is(1L));
+    assertThat(stats.getRecovers(), is(2L));
+    assertThat(stats.getAsyncBoundaries(), is(1L));
+    assertThat(stats.getUnwinds(), is(1L));
+    assertThat(stats.getSuspendedNanos() >= TimeUnit.MILLISECONDS.toNanos(40), is(true));
+    assertThat(stats.getElapsedNanos() >= stats.getSuspendedNanos(), is(true));
+  }
+
+  @Test
+  public void attemptAfterAsync() {
+    final IO<Or<Throwable, Integer>> failed = IO
+        .sleep(1)
+        .chain(IO.<Integer>fail(IllegalStateException::new))
+        .map(x -> x + 1)
+        .attempt();
+
+    assertThat(failed.run().getLeft() instanceof IllegalStateException, is(true));
+    assertThat(IO.sleep(1).chain(IO.pure(1)).attempt().run(), is(Right(1)));
+    assertThat(IO.sleep(1).chain(IO.<Integer>fail(RuntimeException::new))
+                   .recover(err -> Optional.of(2)).map(x -> x * 2).run(), is(4));
+  }
+
+  @Test
+  public void autoYield() throws Exception {
+    final int budget = IORun.getAutoYieldBudget();
+    IORun.setAutoYieldBudget(100);
+
+    try {
+      final List<String> log = Collections.synchronizedList(new ArrayList<>());
+
+      final CompletableFuture<Unit> first =
+          IO.forked(Resources.getSinglePool()).chain(busyLoop(log, "first", 10000)).runAsync();
+      final CompletableFuture<Unit> second =
+          IO.forked(Resources.getSinglePool()).chain(busyLoop(log, "second", 10000)).runAsync();
+
+      first.get();
+      second.get();
+
+      // both IOs share a single thread, so they can only interleave if they yield to each other:
+      assertThat(log.indexOf("second") < log.lastIndexOf("first"), is(true));
+      assertThat(log.indexOf("first") < log.lastIndexOf("second"), is(true));
+    } finally {
+      IORun.setAutoYieldBudget(budget);
+    }
+  }
+
+  private static IO<Unit> busyLoop(List<String> log, String name, int n) {
+    return n == 0 ? IO.unit
+                  : IO(() -> log.add(name)).chain(IO.suspend(() -> busyLoop(log, name, n - 1)));
+  }
+
+  @Test
+  public void fiberJoin() {
+    final List<IO<Integer>> joins = new ArrayList<>();
+
+    IO<Integer> program = IO.pure(0);
+    for (int i = 0; i < 1000; i++) {
+      final int value = i;
+      program = program.flatMap(acc -> IO(() -> value)
+          .start(Resources.getMultiPool())
+          .map(fiber -> {
+            joins.add(fiber.join());
+            return acc + value;
+          }));
+    }
+
+    final int expected = program.run();
+    final int actual = joins.stream().mapToInt(IO::run).sum();
+
+    assertThat(actual, is(expected));
+  }
+
+  @Test
+  public void fiberCancel() {
+    final AtomicInteger state = new AtomicInteger();
+
+    final IO<Integer> io = IO.sleep(Resources.getScheduler(), 300)
+        .chain(IO(() -> state.incrementAndGet()));
+
+    final Or<Throwable, Integer> result = io.start(Resources.getMultiPool())
+        .flatMap(fiber -> fiber.cancel().chain(fiber.join()))
+        .attempt()
+        .then(IO.sleep(Resources.getScheduler(), 500))
+        .run();
+
+    assertThat(result.isLeft(), is(true));
+    assertThat(result.getLeft() instanceof CancellationException, is(true));
+    assertThat(result.getLeft().getStackTrace().length, is(0));
+    assertThat(state.get(), is(0));
+  }
+
+  @Test
+  public void cancellationIsPreallocated() {
+    final IO<Throwable> cancelled = IO.sleep(Resources.getScheduler(), 1000)
+        .start(Resources.getMultiPool())
+        .flatMap(fiber -> fiber.cancel().chain(fiber.join()))
+        .attempt()
+        .map(Or::getLeft);
+
+    assertThat(cancelled.run(), sameInstance(cancelled.run()));
+  }
+
+  @Test
+  public void parTraverse() {
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger maxRunning = new AtomicInteger();
+
+    final List<Integer> input = IntStream.range(0, 10000).boxed().collect(Collectors.toList());
+
+    final List<Integer> result = IOFunctions
+        .parTraverse(Resources.getMultiPool(), 4, input, i -> IO(() -> {
+          final int now = running.incrementAndGet();
+          maxRunning.accumulateAndGet(now, Math::max);
+          return i;
+        }).fork().then(IO(running::decrementAndGet)).map(x -> x * 2))
+        .run();
+
+    assertThat(result, equalTo(input.stream().map(i -> i * 2).collect(Collectors.toList())));
+    assertThat(maxRunning.get() <= 4, is(true));
+  }
+
+  @Test
+  public void parTraverseFailure() {
+    final AtomicInteger state = new AtomicInteger();
+
+    final IO<List<Unit>> traverse = IOFunctions.parSequence(Resources.getMultiPool(), 2, Arrays.asList(
+        IO.sleep(Resources.getScheduler(), 300).chain(IO(() -> state.incrementAndGet())).toUnit(),
+        IO.<Unit>fail(() -> new IllegalStateException("failed")),
+        IO(() -> state.incrementAndGet()).toUnit()
+    ));
+
+    final Or<Throwable, List<Unit>> result =
+        traverse.attempt().then(IO.sleep(Resources.getScheduler(), 500)).run();
+
+    assertThat(result.isLeft(), is(true));
+    assertThat(result.getLeft().getMessage(), is("failed"));
+    // the sleeping IO is cancelled, the last one is never started:
+    assertThat(state.get(), is(0));
+  }
+
+  @Test
+  public void memoize() {
+    final AtomicInteger counter = new AtomicInteger();
+
+    final IO<Integer> memoized = IO.sleep(Resources.getScheduler(), 100)
+        .chain(IO(counter::incrementAndGet))
+        .memoize();
+
+    final List<Integer> results = IOFunctions
+        .parSequence(Resources.getMultiPool(), 10, Collections.nCopies(10, memoized))
+        .run();
+
+    assertThat(results, equalTo(Collections.nCopies(10, 1)));
+    assertThat(memoized.run(), is(1));
+    assertThat(counter.get(), is(1));
+  }
+
+  @Test
+  public void memoizeStaysOnExecutor() {
+    final Executor executor = Resources.getSinglePool();
+    final Thread caller = IO.forked(executor).chain(IO(Thread::currentThread)).run();
+
+    final IO<String> memoized = IO
+        .blocking(() -> {
+          Thread.sleep(100);
+          return "done";
+        })
+        .memoize();
+
+    // the first caller evaluates the IO, the second one waits for it:
+    final List<Thread> threads = IOFunctions
+        .parSequence(Resources.getMultiPool(), 2, Collections.nCopies(
+            2, IO.forked(executor).chain(memoized).map(s -> Thread.currentThread())))
+        .run();
+
+    assertThat(threads, equalTo(Collections.nCopies(2, caller)));
+  }
+
+  @Test
+  public void memoizeFailure() {
+    final AtomicInteger counter = new AtomicInteger();
+
+    final IO<Integer> memoized = IO(counter::incrementAndGet)
+        .flatMap(i -> i == 1 ? IO.<Integer>fail(IllegalStateException::new) : IO.pure(i))
+        .memoize();
+
+    assertThat(memoized.attempt().run().isLeft(), is(true));
+    assertThat(memoized.run(), is(2));
+    assertThat(memoized.run(), is(2));
+
+    final IO<Integer> failureCached = IO(counter::incrementAndGet)
+        .chain(IO.<Integer>fail(IllegalStateException::new))
+        .cached(Duration.ofHours(1), true);
+
+    assertThat(failureCached.attempt().run().isLeft(), is(true));
+    assertThat(failureCached.attempt().run().isLeft(), is(true));
+    assertThat(counter.get(), is(3));
+  }
+
+  @Test
+  public void cached() throws InterruptedException {
+    final AtomicInteger counter = new AtomicInteger();
+    final IO<Integer> cached = IO(counter::incrementAndGet).cached(Duration.ofMillis(200));
+
+    assertThat(cached.run(), is(1));
+    assertThat(cached.run(), is(1));
+    Thread.sleep(300);
+    assertThat(cached.run(), is(2));
+    assertThat(cached.run(), is(2));
+
+    final IO<Integer> forever = IO(counter::incrementAndGet)
+        .cached(ChronoUnit.FOREVER.getDuration());
+    assertThat(forever.run(), is(3));
+    assertThat(forever.run(), is(3));
+  }
+
+  @Test
+  public void cachedNegativeTtl() {
+    thrown.expect(IllegalArgumentException.class);
+    IO.unit.cached(Duration.ofSeconds(-1));
+  }
+
+  @Test
+  public void blocking() {
+    final Thread caller = IO.forked(Resources.getSinglePool()).chain(IO(Thread::currentThread)).run();
+
+    final Pr<String, Thread> result = IO
+        .forked(Resources.getSinglePool())
+        .chain(IO.blocking(() -> Thread.currentThread().getName()))
+        .flatMap(name -> IO(() -> Pr.of(name, Thread.currentThread())))
+        .run();
+
+    assertThat(result._1().startsWith("jeff-blocking-"), is(true));
+    assertThat(result._2(), is(caller));
+  }
+
+  @Test
+  public void blockingWithoutExecutor() {
+    // not running on any executor, so the evaluation continues on the compute pool
+    final Pr<String, String> result = IO
+        .blocking(() -> Thread.currentThread().getName())
+        .flatMap(name -> IO(() -> Pr.of(name, Thread.currentThread().getName())))
+        .run();
+
+    assertThat(result._1().startsWith("jeff-blocking-"), is(true));
+    assertThat(result._2().startsWith("jeff-compute-"), is(true));
+
+    final String recoveredOn = IO
+        .blocking(() -> {
+          throw new IllegalStateException();
+        })
+        .map(Object::toString)
+        .recover(err -> Optional.of(Thread.currentThread().getName()))
+        .run();
+
+    assertThat(recoveredOn.startsWith("jeff-compute-"), is(true));
+  }
+
+  @Test
+  public void forkDefault() {
+    final String thread = IO.unit.fork().chain(IO(() -> Thread.currentThread().getName())).run();
+
+    assertThat(thread.startsWith("jeff-compute-"), is(true));
+  }
+
+  @Test
+  public void sleepDefault() {
+    final long start = System.nanoTime();
+    final Integer result = IO.sleep(200).chain(IO.pure(44)).run();
+
+    assertThat(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(200), is(true));
+    assertThat(result, is(44));
+  }
+
+  @Test
+  public void cancelSleepDefault() {
+    final AtomicInteger state = new AtomicInteger();
+
+    final IO<Integer> io1 = IO.sleep(300).chain(IO.delay(() -> state.updateAndGet(i -> i + 2)));
+    final IO<Integer> io2 = IO.sleep(600).chain(IO.delay(() -> state.updateAndGet(i -> i + 1)));
+
+    final Or<Integer, Integer> result = IO
+        .race(Resources.getMultiPool(), io1, io2)
+        .then(IO.sleep(400))
+        .run();
+
+    assertThat(result, is(Left(2)));
+    assertThat(state.get(), is(2));
+  }
+
+  @Test
+  public void timeout() {
+    final Or<Throwable, Integer> result = IO.sleep(500).map(u -> 1).timeout(100).attempt().run();
+
+    assertThat(result.isLeft(), is(true));
+    assertThat(result.getLeft() instanceof TimeoutException, is(true));
+    assertThat(result.getLeft().getStackTrace().length, is(0));
+
+    final String recovered = IO.sleep(500).map(u -> "done").timeout(100)
+        .recover(Recovery.rules(Recovery.on(TimeoutException.class).doReturn("timed out")))
+        .run();
+    assertThat(recovered, is("timed out"));
+  }
+
+  @Test
+  public void timeoutNotReached() {
+    assertThat(IO.sleep(50).map(u -> 1).timeout(1000).run(), is(1));
+    assertThat(IO.pure(2).timeout(1000).run(), is(2));
+  }
+
+  @Test
+  public void timeoutStaysOnExecutor() {
+    final Executor executor = Resources.getSinglePool();
+    final Thread caller = IO.forked(executor).chain(IO(Thread::currentThread)).run();
+
+    final Thread completedOn = IO
+        .forked(executor)
+        .chain(IO.blocking(() -> {
+          Thread.sleep(50);
+          return 1;
+        }).timeout(1000))
+        .map(x -> Thread.currentThread())
+        .run();
+    assertThat(completedOn, is(caller));
+
+    final Thread timedOutOn = IO
+        .forked(executor)
+        .chain(IO.sleep(1000).timeoutTo(50, IO.unit))
+        .map(x -> Thread.currentThread())
+        .run();
+    assertThat(timedOutOn, is(caller));
+  }
+
+  @Test
+  public void timeoutToCancels() throws InterruptedException {
+    final AtomicInteger state = new AtomicInteger();
+
+    final Integer result = IO.sleep(300)
+        .chain(IO(state::incrementAndGet))
+        .timeoutTo(100, IO(() -> state.addAndGet(10)))
+        .run();
+
+    Thread.sleep(400);
+    assertThat(result, is(10));
+    assertThat(state.get(), is(10));
+  }
+
+  @Test
+  public void retry() {
+    final AtomicInteger attempts = new AtomicInteger();
+
+    final Integer result = IO(() -> {
+      if (attempts.incrementAndGet() < 4) {
+        throw new IllegalStateException();
+      }
+      return attempts.get();
+    }).retry(Schedule.spaced(Duration.ofMillis(10)).and(Schedule.recurs(5))).run();
+
+    assertThat(result, is(4));
+  }
+
+  @Test
+  public void retryGivesUp() {
+    final AtomicInteger attempts = new AtomicInteger();
+
+    final Or<Throwable, Object> result = IO
+        .fail(() -> new IllegalStateException(String.valueOf(attempts.incrementAndGet())))
+        .retry(Schedule.recurs(3))
+        .attempt()
+        .run();
+
+    assertThat(attempts.get(), is(4));
+    assertThat(result.getLeft().getMessage(), is("4"));
+  }
+
+  @Test
+  public void retryConstantMemory() {
+    final AtomicInteger attempts = new AtomicInteger();
+
+    final Or<Throwable, Object> result = IO
+        .fail(() -> new IllegalStateException(String.valueOf(attempts.incrementAndGet())))
+        .retry(Schedule.recurs(1_000_000))
+        .attempt()
+        .run();
+
+    assertThat(result.isLeft(), is(true));
+    assertThat(attempts.get(), is(1_000_001));
+  }
+
+  @Test
+  public void repeat() {
+    final AtomicInteger counter = new AtomicInteger();
+
+    final long start = System.nanoTime();
+    final Integer result = IO(counter::incrementAndGet)
+        .repeat(Schedule.fixedRate(Duration.ofMillis(20)).and(Schedule.recurs(4)))
+        .run();
+
+    assertThat(result, is(5));
+    assertThat(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(80), is(true));
+  }
+
+  @Test
+  public void recoveryRules() {
+    final Function<Throwable, Optional<String>> rules = Recovery.rules(
+        Recovery.on(IllegalArgumentException.class).and(e -> "skip".equals(e.getMessage())).doReturn("skipped"),
+        Recovery.on(IllegalArgumentException.class).doReturn("illegal argument"),
+        Recovery.on(RuntimeException.class).doReturn("runtime"));
+
+    for (int i = 0; i < 2; i++) {
+      assertThat(rules.apply(new IllegalArgumentException("skip")), is(Optional.of("skipped")));
+      assertThat(rules.apply(new IllegalArgumentException()), is(Optional.of("illegal argument")));
+      assertThat(rules.apply(new NumberFormatException()), is(Optional.of("illegal argument")));
+      assertThat(rules.apply(new IllegalStateException()), is(Optional.of("runtime")));
+      assertThat(rules.apply(new Exception()), is(Optional.empty()));
+    }
+
+    final String result = IO.<String>fail(IllegalStateException::new).recover(rules).run();
+    assertThat(result, is("runtime"));
+  }
+
+  @Test
+  public void optimize() {
+    final AtomicInteger effects = new AtomicInteger();
+
+    final IO<Integer> io = IO.pure(1)
+        .flatMap(x -> IO.pure(x + 1))
+        .map(x -> x * 2)
+        .chain(IO(effects::incrementAndGet))
+        .chain(IO.unit)
+        .chain(IO.unit)
+        .then(IO.unit)
+        .map(u -> effects.get() * 10)
+        .chain(IO.pure(0).map(x -> x + 7))
+        .attempt()
+        .map(Or::getRight);
+
+    final IO<Integer> optimized = io.optimize();
+    // nothing is evaluated ahead of time
+    assertThat(effects.get(), is(0));
+
+    final IOStats plain = io.runWithStats()._2;
+    final Pr<Integer, IOStats> result = optimized.runWithStats();
+
+    assertThat(result._1, is(7));
+    assertThat(effects.get(), is(2));
+    assertThat(result._2.getBinds() + result._2.getMaps() < plain.getBinds() + plain.getMaps(),
+               is(true));
+
+    assertThat(IO.<Integer>fail(IllegalStateException::new).chain(IO.unit).then(IO.unit)
+                   .recover(err -> Optional.of(Unit.unit)).optimize().run(), is(Unit.unit));
+  }
+
+  @Test
+  public void optimizeStackSafety() {
+    IO<Integer> io = IO.pure(0);
+
+    for (int i = 0; i < 100000; i++) {
+      io = io.map(x -> x + 1).flatMap(IO::pure).chain(IO.unit).map(u -> 1);
+    }
+
+    assertThat(io.optimize().run(), is(1));
+
+    IO<Unit> nested = IO.unit;
+    for (int i = 0; i < 100000; i++) {
+      nested = IO.unit.chain(nested);
+    }
+
+    assertThat(nested.optimize().run(), is(Unit.unit));
+  }
 }
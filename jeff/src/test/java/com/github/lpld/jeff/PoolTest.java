@@ -0,0 +1,140 @@
+package com.github.lpld.jeff;
+
+import com.github.lpld.jeff.data.Or;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static com.github.lpld.jeff.IO.IO;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class PoolTest extends IOTestBase {
+
+  private final AtomicInteger created = new AtomicInteger();
+  private final AtomicInteger destroyed = new AtomicInteger();
+
+  private Pool<Integer> pool(int maxSize) {
+    return Pool.create(IO(created::incrementAndGet), r -> IO(destroyed::incrementAndGet).toUnit(), maxSize);
+  }
+
+  @Test
+  public void reuse() {
+    final Pool<Integer> pool = pool(2);
+
+    for (int i = 0; i < 10; i++) {
+      assertThat(pool.use(r -> IO.pure(r * 10)).run(), is(10));
+    }
+    assertThat(created.get(), is(1));
+  }
+
+  @Test
+  public void maxSize() {
+    final Pool<Integer> pool = pool(3);
+    final AtomicInteger inUse = new AtomicInteger();
+    final AtomicInteger maxInUse = new AtomicInteger();
+
+    final List<IO<Integer>> ios = IntStream
+        .range(0, 100)
+        .mapToObj(i -> pool.use(r -> IO(() -> maxInUse.accumulateAndGet(inUse.incrementAndGet(), Math::max))
+            .chain(IO.sleep(2))
+            .chain(IO(inUse::decrementAndGet))))
+        .collect(Collectors.toList());
+
+    IOFunctions.parSequence(Resources.getMultiPool(), 20, ios).run();
+
+    assertThat(maxInUse.get() <= 3, is(true));
+    assertThat(created.get() <= 3, is(true));
+    assertThat(inUse.get(), is(0));
+  }
+
+  @Test
+  public void releaseOnFailure() {
+    final Pool<Integer> pool = pool(1);
+
+    final Or<Throwable, Object> result = pool
+        .use(r -> IO.fail(IllegalStateException::new))
+        .attempt()
+        .run();
+
+    assertThat(result.getLeft() instanceof IllegalStateException, is(true));
+    assertThat(pool.use(IO::pure).timeout(1000).run(), is(1));
+    assertThat(created.get(), is(1));
+  }
+
+  @Test
+  public void releaseOnCancellation() {
+    final Pool<Integer> pool = pool(1);
+
+    final Or<Throwable, Integer> result = pool
+        .use(r -> IO.sleep(10_000).map(u -> r))
+        .timeout(50)
+        .attempt()
+        .run();
+
+    assertThat(result.getLeft() instanceof TimeoutException, is(true));
+    assertThat(pool.use(IO::pure).timeout(1000).run(), is(1));
+  }
+
+  @Test
+  public void cancelledWaiter() {
+    final Pool<Integer> pool = pool(1);
+
+    final Integer resource = pool.acquire().run();
+    final Or<Throwable, Integer> waiting = pool.acquire().timeout(50).attempt().run();
+    assertThat(waiting.getLeft() instanceof TimeoutException, is(true));
+
+    pool.release(resource).run();
+    assertThat(pool.acquire().timeout(1000).run(), is(1));
+    assertThat(created.get(), is(1));
+  }
+
+  @Test
+  public void idleEviction() throws InterruptedException {
+    final Pool<Integer> pool = Pool.create(
+        IO(created::incrementAndGet), r -> IO(destroyed::incrementAndGet).toUnit(), 2,
+        Duration.ofMillis(50));
+
+    pool.use(IO::pure).run();
+    Thread.sleep(300);
+
+    assertThat(destroyed.get(), is(1));
+    assertThat(pool.use(IO::pure).run(), is(2));
+  }
+
+  @Test
+  public void unboundedIdleTime() throws InterruptedException {
+    final Pool<Integer> pool = Pool.create(
+        IO(created::incrementAndGet), r -> IO(destroyed::incrementAndGet).toUnit(), 2,
+        ChronoUnit.FOREVER.getDuration());
+
+    pool.use(IO::pure).run();
+    Thread.sleep(50);
+
+    assertThat(destroyed.get(), is(0));
+    assertThat(pool.use(IO::pure).run(), is(1));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void negativeIdleTime() {
+    Pool.create(IO(created::incrementAndGet), r -> IO.unit, 2, Duration.ofMillis(-1));
+  }
+
+  @Test
+  public void close() {
+    final Pool<Integer> pool = pool(1);
+
+    pool.use(IO::pure).run();
+    pool.close().run();
+
+    assertThat(destroyed.get(), is(1));
+    assertThat(pool.acquire().attempt().run().getLeft() instanceof IllegalStateException, is(true));
+  }
+}
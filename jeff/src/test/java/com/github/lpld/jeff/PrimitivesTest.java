@@ -0,0 +1,176 @@
+package com.github.lpld.jeff;
+
+import com.github.lpld.jeff.data.Or;
+import com.github.lpld.jeff.data.Pr;
+import com.github.lpld.jeff.data.Unit;
+
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static com.github.lpld.jeff.IO.IO;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for {@link Ref}, {@link Deferred} and {@link Semaphore}.
+ */
+public class PrimitivesTest extends IOTestBase {
+
+  @Test
+  public void refModify() {
+    final Ref<Integer> ref = Ref.of(0);
+
+    final List<IO<Unit>> updates = IntStream
+        .range(0, 1000)
+        .mapToObj(i -> ref.update(x -> x + 1))
+        .collect(Collectors.toList());
+    IOFunctions.parSequence(Resources.getMultiPool(), 10, updates).run();
+
+    assertThat(ref.get().run(), is(1000));
+    assertThat(ref.modify(x -> Pr.of(x * 2, "old: " + x)).run(), is("old: 1000"));
+    assertThat(ref.updateAndGet(x -> x + 1).run(), is(2001));
+  }
+
+  @Test
+  public void deferred() {
+    final Deferred<String> deferred = Deferred.create();
+
+    final IO<String> program = deferred.get()
+        .start(Resources.getMultiPool())
+        .flatMap(fiber -> IO.sleep(50)
+            .chain(deferred.complete("done"))
+            .chain(fiber.join()));
+
+    assertThat(program.run(), is("done"));
+    assertThat(deferred.complete("again").run(), is(false));
+    assertThat(deferred.get().run(), is("done"));
+  }
+
+  @Test
+  public void deferredFailure() {
+    final Deferred<String> deferred = Deferred.create();
+    deferred.fail(new IllegalStateException()).run();
+
+    assertThat(deferred.get().attempt().run().getLeft() instanceof IllegalStateException, is(true));
+  }
+
+  @Test
+  public void deferredCancelledWaiters() throws InterruptedException {
+    final Deferred<String> deferred = Deferred.create();
+    final List<WeakReference<Object>> payloads = new ArrayList<>();
+
+    for (int i = 0; i < 20; i++) {
+      final Object payload = new Object();
+      payloads.add(new WeakReference<>(payload));
+
+      final Or<Throwable, Integer> result = deferred.get()
+          .map(s -> payload.hashCode())
+          .timeout(5)
+          .attempt()
+          .run();
+      assertThat(result.getLeft() instanceof TimeoutException, is(true));
+    }
+
+    // the timed out waiters are no longer referenced by the deferred:
+    long retained = payloads.size();
+    for (int i = 0; i < 50 && retained > 0; i++) {
+      System.gc();
+      Thread.sleep(20);
+      retained = payloads.stream().filter(ref -> ref.get() != null).count();
+    }
+    assertThat("retained " + retained, retained, is(0L));
+
+    final IO<String> program = deferred.get()
+        .start(Resources.getMultiPool())
+        .flatMap(fiber -> deferred.complete("done").chain(fiber.join()));
+    assertThat(program.run(), is("done"));
+  }
+
+  @Test
+  public void semaphoreLimitsConcurrency() {
+    final Semaphore semaphore = Semaphore.create(3);
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger maxRunning = new AtomicInteger();
+
+    final List<IO<Integer>> ios = IntStream
+        .range(0, 200)
+        .mapToObj(i -> semaphore.withPermit(
+            IO(() -> maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max))
+                .chain(IO.sleep(1))
+                .chain(IO(running::decrementAndGet))))
+        .collect(Collectors.toList());
+
+    IOFunctions.parSequence(Resources.getMultiPool(), 50, ios).run();
+
+    assertThat(maxRunning.get() <= 3, is(true));
+    assertThat(semaphore.available().run(), is(3L));
+  }
+
+  @Test
+  public void semaphoreContention() {
+    final Semaphore semaphore = Semaphore.create(1);
+    final AtomicInteger counter = new AtomicInteger();
+
+    // waiters are counted before they're queued, so releases often find waiters that are not in
+    // the queue yet:
+    final List<IO<Unit>> ios = IntStream
+        .range(0, 20_000)
+        .mapToObj(i -> semaphore.withPermit(IO(counter::incrementAndGet)).map(x -> Unit.unit))
+        .collect(Collectors.toList());
+
+    IOFunctions.parSequence(Resources.getMultiPool(), 10, ios).run();
+
+    assertThat(counter.get(), is(20_000));
+    assertThat(semaphore.available().run(), is(1L));
+  }
+
+  @Test
+  public void semaphoreCancelledWaiters() {
+    final Semaphore semaphore = Semaphore.create(1);
+    semaphore.acquire().run();
+
+    for (int i = 0; i < 10; i++) {
+      final Or<Throwable, Unit> result = semaphore.acquire().timeout(10).attempt().run();
+      assertThat(result.getLeft() instanceof TimeoutException, is(true));
+    }
+
+    final Or<Throwable, Unit> cancelledUse = semaphore
+        .withPermit(IO.unit)
+        .timeout(10)
+        .attempt()
+        .run();
+    assertThat(cancelledUse.isLeft(), is(true));
+
+    // the permit is not lost on the cancelled waiters:
+    semaphore.release().run();
+    semaphore.acquire().timeout(1000).run();
+    semaphore.release().run();
+    assertThat(semaphore.available().run(), is(1L));
+  }
+
+  @Test
+  public void semaphoreCancellationStress() {
+    final Semaphore semaphore = Semaphore.create(2);
+
+    final List<IO<Or<Throwable, Unit>>> ios = IntStream
+        .range(0, 2000)
+        .mapToObj(i -> semaphore
+            .withPermit(IO.sleep(i % 3))
+            .timeout(i % 4)
+            .attempt())
+        .collect(Collectors.toList());
+
+    IOFunctions.parSequence(Resources.getMultiPool(), 100, ios).run();
+
+    assertThat(semaphore.tryAcquire().run(), is(true));
+    assertThat(semaphore.tryAcquire().run(), is(true));
+    assertThat(semaphore.tryAcquire().run(), is(false));
+  }
+}
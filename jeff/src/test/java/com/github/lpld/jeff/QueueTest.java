@@ -0,0 +1,140 @@
+package com.github.lpld.jeff;
+
+import com.github.lpld.jeff.data.Or;
+import com.github.lpld.jeff.data.Unit;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class QueueTest extends IOTestBase {
+
+  @Test
+  public void fifo() {
+    final Queue<Integer> queue = Queue.bounded(10);
+
+    for (int i = 0; i < 10; i++) {
+      queue.offer(i).run();
+    }
+    for (int i = 0; i < 10; i++) {
+      assertThat(queue.take().run(), is(i));
+    }
+    assertThat(queue.tryTake().run(), is(Optional.empty()));
+  }
+
+  @Test
+  public void backPressure() {
+    final Queue<Integer> queue = Queue.bounded(2);
+
+    assertThat(queue.tryOffer(1).run(), is(true));
+    queue.offer(2).run();
+    assertThat(queue.tryOffer(3).run(), is(false));
+
+    final Or<Throwable, Unit> blocked = queue.offer(3).timeout(50).attempt().run();
+    assertThat(blocked.getLeft() instanceof TimeoutException, is(true));
+
+    // the cancelled offer must not take the free space:
+    assertThat(queue.take().run(), is(1));
+    assertThat(queue.tryOffer(4).run(), is(true));
+    assertThat(queue.take().run(), is(2));
+    assertThat(queue.take().run(), is(4));
+  }
+
+  @Test
+  public void cancelledContendedOffersAndTakes() {
+    final Queue<Integer> queue = Queue.bounded(2);
+
+    final List<IO<Or<Throwable, Unit>>> ios = IntStream
+        .range(0, 4000)
+        .mapToObj(i -> (i % 2 == 0 ? queue.offer(i) : queue.take().map(x -> Unit.unit))
+            .timeout(i % 3)
+            .attempt())
+        .collect(Collectors.toList());
+
+    IOFunctions.parSequence(Resources.getMultiPool(), 100, ios).run();
+
+    // neither free space nor ready elements are lost on the cancelled offers and takes:
+    while (queue.tryTake().timeout(1000).run().isPresent()) {
+    }
+    assertThat(queue.tryOffer(1).run(), is(true));
+    assertThat(queue.tryOffer(2).run(), is(true));
+    assertThat(queue.tryOffer(3).run(), is(false));
+    assertThat(queue.take().timeout(1000).run(), is(1));
+    assertThat(queue.take().timeout(1000).run(), is(2));
+  }
+
+  @Test
+  public void cancelledRetryReleasesPermit() throws InterruptedException {
+    final Semaphore permits = Semaphore.create(1);
+    final ExecutorService executor = Resources.getSinglePool();
+    final CountDownLatch busy = new CountDownLatch(1);
+
+    // the retry is still waiting behind a busy task of the executor when it gets cancelled:
+    final Or<Throwable, Unit> result = IO.forked(executor)
+        .chain(permits.acquire())
+        .chain(IO.delay(() -> executor.execute(() -> {
+          try {
+            busy.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        })))
+        .chain(Queue.retryLater(permits))
+        .timeout(50)
+        .attempt()
+        .run();
+    busy.countDown();
+
+    assertThat(result.getLeft() instanceof TimeoutException, is(true));
+    assertThat(permits.available().run(), is(1L));
+  }
+
+  @Test
+  public void takeWaits() {
+    final Queue<String> queue = Queue.bounded(1);
+
+    final String result = queue.take()
+        .start(Resources.getMultiPool())
+        .flatMap(fiber -> IO.sleep(50).chain(queue.offer("hello")).chain(fiber.join()))
+        .run();
+
+    assertThat(result, is("hello"));
+  }
+
+  @Test
+  public void multipleProducersAndConsumers() {
+    final Queue<Integer> queue = Queue.bounded(16);
+    final int producers = 4;
+    final int perProducer = 10000;
+
+    final List<IO<Long>> ios = new ArrayList<>();
+    for (int p = 0; p < producers; p++) {
+      final int from = p * perProducer;
+      ios.add(Stream.ofAll(IntStream.range(from, from + perProducer).boxed().collect(Collectors.toList()))
+                  .enqueue(queue)
+                  .drain()
+                  .map(u -> 0L));
+      ios.add(queue.dequeueStream().take(perProducer).foldLeft(0L, (sum, i) -> sum + i));
+    }
+
+    final long total = IOFunctions.parSequence(Resources.getMultiPool(), ios.size(), ios)
+        .run()
+        .stream()
+        .mapToLong(Long::longValue)
+        .sum();
+
+    final long n = producers * perProducer;
+    assertThat(total, equalTo(n * (n - 1) / 2));
+  }
+}
@@ -0,0 +1,107 @@
+package com.github.lpld.jeff;
+
+import com.github.lpld.jeff.functions.Fn;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for delays produced by {@link Schedule}.
+ */
+public class ScheduleTest {
+
+  private static final long MS = Duration.ofMillis(1).toNanos();
+
+  @Test
+  public void recurs() {
+    final Schedule schedule = Schedule.recurs(2);
+
+    assertThat(schedule.delay(1, 0), is(0L));
+    assertThat(schedule.delay(2, 0), is(0L));
+    assertThat(schedule.delay(3, 0) < 0, is(true));
+  }
+
+  @Test
+  public void exponential() {
+    final Schedule schedule = Schedule.exponential(Duration.ofMillis(10)).maxDelay(Duration.ofMillis(50));
+
+    assertThat(schedule.delay(1, 0), is(10 * MS));
+    assertThat(schedule.delay(2, 0), is(20 * MS));
+    assertThat(schedule.delay(3, 0), is(40 * MS));
+    assertThat(schedule.delay(4, 0), is(50 * MS));
+    assertThat(schedule.delay(1000, 0), is(50 * MS));
+  }
+
+  @Test
+  public void fixedRate() {
+    final Schedule schedule = Schedule.fixedRate(Duration.ofMillis(100));
+
+    assertThat(schedule.delay(1, 30 * MS), is(70 * MS));
+    assertThat(schedule.delay(2, 130 * MS), is(70 * MS));
+    assertThat(schedule.delay(3, 250 * MS), is(50 * MS));
+  }
+
+  @Test
+  public void jittered() {
+    final Schedule schedule = Schedule.spaced(Duration.ofMillis(100)).jittered();
+
+    for (int i = 1; i < 1000; i++) {
+      final long delay = schedule.delay(i, 0);
+      assertThat(delay >= 0 && delay <= 100 * MS, is(true));
+    }
+  }
+
+  @Test
+  public void andUpTo() {
+    final Schedule schedule = Schedule
+        .spaced(Duration.ofMillis(10))
+        .and(Schedule.exponential(Duration.ofMillis(4)))
+        .upTo(Duration.ofSeconds(1));
+
+    assertThat(schedule.delay(1, 0), is(10 * MS));
+    assertThat(schedule.delay(3, 0), is(16 * MS));
+    assertThat(schedule.delay(3, 1000 * MS) < 0, is(true));
+    assertThat(Schedule.spaced(Duration.ofMillis(10)).and(Schedule.recurs(1)).delay(2, 0) < 0, is(true));
+  }
+
+  @Test
+  public void nonPositiveDurations() {
+    final List<Fn<Duration, Schedule>> schedules = Arrays.asList(
+        Schedule::spaced,
+        Schedule::exponential,
+        Schedule::fixedRate,
+        d -> Schedule.recurs(1).maxDelay(d),
+        d -> Schedule.recurs(1).upTo(d));
+
+    for (Fn<Duration, Schedule> schedule : schedules) {
+      for (Duration duration : Arrays.asList(Duration.ZERO, Duration.ofMillis(-1))) {
+        try {
+          schedule.ap(duration);
+          fail("accepted " + duration);
+        } catch (IllegalArgumentException expected) {
+          // ok
+        }
+      }
+    }
+  }
+
+  @Test
+  public void hugeDurations() {
+    final Duration forever = ChronoUnit.FOREVER.getDuration();
+
+    assertThat(Schedule.spaced(forever).delay(1, 0), is(Long.MAX_VALUE));
+    assertThat(Schedule.exponential(forever).delay(3, 0), is(Long.MAX_VALUE));
+    assertThat(Schedule.fixedRate(forever).delay(1, 30 * MS), is(Long.MAX_VALUE - 30 * MS));
+    assertThat(Schedule.spaced(Duration.ofMillis(10)).maxDelay(forever).delay(1, 0), is(10 * MS));
+    assertThat(Schedule.spaced(Duration.ofMillis(10)).upTo(forever).delay(1, 1000 * MS),
+               is(10 * MS));
+  }
+}
@@ -10,8 +10,10 @@ import org.junit.Test;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -399,6 +401,31 @@ public class StreamTest {
         .run();
   }
 
+  @Test
+  public void tickDefault() {
+    final long start = System.nanoTime();
+    final Integer ticks = Stream.tick(20).take(5).foldLeft(0, (n, u) -> n + 1).run();
+
+    assertThat(ticks, is(5));
+    assertThat(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100), is(true));
+  }
+
+  @Test(timeout = 30000)
+  public void mergeLongStreams() {
+    final ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      for (int i = 0; i < 20; i++) {
+        final long sum = Stream
+            .merge(executor, Stream.integers().take(5000), Stream.integers().take(5000))
+            .foldLeft(0L, (acc, n) -> acc + n)
+            .run();
+        assertThat(sum, is(2 * 4999L * 5000 / 2));
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
   @Test
   public void testMerge() {
     final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();